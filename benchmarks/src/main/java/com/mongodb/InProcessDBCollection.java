@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DBCollection that acknowledges bulk writes without sending them anywhere, so the transaction
+ * worker can be measured without a mongod.
+ *
+ * <p>The class is in the driver's package because every BulkWriteOperation ends in the
+ * package-private 'executeBulkWriteOperation(...)', which is the only method overridden.
+ *
+ * @author Jab
+ */
+public class InProcessDBCollection extends DBCollection {
+
+  /** The amount of write requests received. */
+  private long requests;
+
+  /**
+   * Main constructor.
+   *
+   * @param database The DB of the collection. It is never contacted.
+   * @param name The name of the collection.
+   */
+  public InProcessDBCollection(DB database, String name) {
+    super(database, name);
+  }
+
+  @Override
+  BulkWriteResult executeBulkWriteOperation(
+      boolean ordered,
+      Boolean bypassDocumentValidation,
+      List<WriteRequest> writeRequests,
+      WriteConcern writeConcern) {
+    synchronized (this) {
+      requests += writeRequests.size();
+      notifyAll();
+    }
+    return new AcknowledgedBulkWriteResult(
+        0, 0, 0, 0, Collections.<BulkWriteUpsert>emptyList());
+  }
+
+  /**
+   * Waits for the collection to receive an amount of write requests in total.
+   *
+   * @param requests The total amount of write requests to wait for.
+   * @throws InterruptedException Thrown if the thread is interrupted while waiting.
+   */
+  public synchronized void awaitRequests(long requests) throws InterruptedException {
+    while (this.requests < requests) {
+      wait();
+    }
+  }
+
+  /** @return Returns the amount of write requests received. */
+  public synchronized long getRequests() {
+    return this.requests;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.benchmark;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import jab.bukkit.mpermissions.mongo.MongoPermissionGroup;
+import jab.bukkit.mpermissions.mongo.MongoPermissionUser;
+import jab.bukkit.mpermissions.mongo.MongoPermissionsDatabase;
+import jab.bukkit.mpermissions.object.PermissionGroup;
+import jab.bukkit.mpermissions.object.PermissionUser;
+import jab.mongo.MongoCollection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Utility class to build synthetic PermissionGroups, PermissionUsers and documents for the
+ * benchmarks. Nothing built here is connected to a MongoDB server, and nothing is ever saved.
+ *
+ * @author Jab
+ */
+public class BenchmarkData {
+
+  /** The seed for every Random used, so each run resolves the same data. */
+  public static final long SEED = 0x4D5065726D73L;
+
+  /** The database the synthetic documents belong to. It is never connected. */
+  private static final MongoPermissionsDatabase DATABASE =
+      new MongoPermissionsDatabase("benchmark");
+
+  /** The collection the synthetic documents belong to. It has no DBCollection. */
+  private static final MongoCollection COLLECTION = new MongoCollection(DATABASE, null);
+
+  /**
+   * (Private Constructor)
+   *
+   * <p>Utility class.
+   */
+  private BenchmarkData() {}
+
+  /**
+   * Builds a String node in the style plug-ins use, such as "plugin3.command7.node12".
+   *
+   * @param index The index of the node. Every index gives a different node.
+   * @return Returns the String node.
+   */
+  public static String node(int index) {
+    return "plugin" + (index % 16) + ".command" + ((index / 16) % 32) + ".node" + index;
+  }
+
+  /**
+   * Builds the stored form of a List of nodes, as found in the 'nodes' field of a document.
+   *
+   * @param count The amount of nodes.
+   * @param prefix The String prepended to each node, so different documents define different
+   *     nodes.
+   * @return Returns the List of node DBObjects.
+   */
+  public static List<DBObject> nodeObjects(int count, String prefix) {
+    List<DBObject> listNodes = new ArrayList<>(count);
+    Random random = new Random(SEED);
+    for (int index = 0; index < count; index++) {
+      DBObject objectNode = new BasicDBObject();
+      objectNode.put("name", prefix + node(index));
+      objectNode.put("flag", random.nextInt(4) != 0 ? "1" : "0");
+      listNodes.add(objectNode);
+    }
+    return listNodes;
+  }
+
+  /**
+   * Builds a stored PermissionGroup document.
+   *
+   * @param name The String name of the group.
+   * @param nodes The amount of nodes to define.
+   * @param prefix The String prepended to each node.
+   * @return Returns the DBObject for the document.
+   */
+  public static DBObject groupObject(String name, int nodes, String prefix) {
+    DBObject object = new BasicDBObject();
+    object.put("id", UUID.randomUUID().toString());
+    object.put("name", name);
+    object.put("parentId", null);
+    object.put("nodes", nodeObjects(nodes, prefix));
+    return object;
+  }
+
+  /**
+   * Builds a PermissionGroup.
+   *
+   * @param name The String name of the group.
+   * @param nodes The amount of nodes to define.
+   * @param prefix The String prepended to each node.
+   * @return Returns the PermissionGroup.
+   */
+  public static PermissionGroup group(String name, int nodes, String prefix) {
+    return new PermissionGroup(
+        new MongoPermissionGroup(COLLECTION, groupObject(name, nodes, prefix)));
+  }
+
+  /**
+   * Builds a chain of PermissionGroups, each one the parent of the next.
+   *
+   * @param depth The amount of groups in the chain.
+   * @param nodes The amount of nodes each group defines. Each group defines its own nodes, and
+   *     overrides some of its parent's.
+   * @return Returns the PermissionGroup at the end of the chain, the child of every other one.
+   */
+  public static PermissionGroup groupChain(int depth, int nodes) {
+    PermissionGroup parent = null;
+    PermissionGroup group = null;
+    for (int level = 0; level < depth; level++) {
+      // Every other group re-defines the nodes of the root, to exercise overrides.
+      String prefix = level % 2 == 0 ? "" : "level" + level + ".";
+      group = group("group" + level, nodes, prefix);
+      if (parent != null) {
+        group.setTemporaryParent(parent);
+      }
+      parent = group;
+    }
+    return group;
+  }
+
+  /**
+   * Builds a PermissionUser.
+   *
+   * @param group The PermissionGroup of the user. This can be null.
+   * @param nodes The amount of nodes the user defines.
+   * @return Returns the PermissionUser.
+   */
+  public static PermissionUser user(PermissionGroup group, int nodes) {
+    DBObject object = new BasicDBObject();
+    object.put("id", UUID.randomUUID().toString());
+    object.put("groupId", group != null ? group.getUniqueId().toString() : null);
+    object.put("nodes", nodeObjects(nodes, "user."));
+    PermissionUser user = new PermissionUser(new MongoPermissionUser(COLLECTION, object));
+    if (group != null) {
+      user.setTemporaryPermissionGroup(group);
+    }
+    return user;
+  }
+
+  /**
+   * Builds the String nodes tested by the benchmarks. A quarter are defined exactly, a quarter
+   * inherit from a defined super-node, and the rest are not defined at all.
+   *
+   * @param count The amount of queries.
+   * @param nodes The amount of nodes defined, which the queries are picked from.
+   * @return Returns the array of String nodes.
+   */
+  public static String[] queries(int count, int nodes) {
+    String[] queries = new String[count];
+    Random random = new Random(SEED);
+    for (int index = 0; index < count; index++) {
+      String node = node(random.nextInt(Math.max(nodes, 1)));
+      switch (index % 4) {
+        case 0:
+          queries[index] = node;
+          break;
+        case 1:
+          queries[index] = node + ".child";
+          break;
+        default:
+          queries[index] = "missing" + index + "." + node;
+          break;
+      }
+    }
+    return queries;
+  }
+}
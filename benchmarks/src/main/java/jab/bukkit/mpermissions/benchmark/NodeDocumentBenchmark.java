@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.benchmark;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import jab.bukkit.mpermissions.mongo.MongoPermissionGroup;
+import jab.bukkit.mpermissions.mongo.MongoPermissionsDatabase;
+import jab.mongo.MongoCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for serialising the nodes of a MongoUniqueNodeDocument to and from DBObjects.
+ *
+ * @author Jab
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeDocumentBenchmark {
+
+  /** The amount of nodes in the document. */
+  @Param({"10", "1000", "10000"})
+  public int nodes;
+
+  /** The stored form of the document. */
+  private DBObject object;
+  /** The document loaded from the stored form. */
+  private MongoPermissionGroup document;
+  /** The collection the document belongs to. It has no DBCollection. */
+  private MongoCollection collection;
+
+  @Setup
+  public void setup() {
+    collection = new MongoCollection(new MongoPermissionsDatabase("benchmark"), null);
+    object = BenchmarkData.groupObject("group", nodes, "");
+    document = new MongoPermissionGroup(collection, object);
+  }
+
+  @Benchmark
+  public DBObject saveNodes() {
+    DBObject objectSaved = new BasicDBObject();
+    document.saveNodes(objectSaved);
+    return objectSaved;
+  }
+
+  @Benchmark
+  public MongoPermissionGroup loadNodes() {
+    // The MongoDB constructor loads the nodes from the stored form.
+    return new MongoPermissionGroup(collection, object);
+  }
+}
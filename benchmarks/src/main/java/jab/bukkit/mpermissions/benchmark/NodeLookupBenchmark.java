@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.benchmark;
+
+import jab.bukkit.mpermissions.object.Node;
+import jab.bukkit.mpermissions.object.PermissionGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for finding the closest Node defined on one PermissionObject, and for parsing Nodes.
+ *
+ * @author Jab
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeLookupBenchmark {
+
+  /** The amount of queries cycled through, so no single answer is constant-folded. */
+  private static final int QUERIES = 1024;
+
+  /** The amount of nodes the group defines. */
+  @Param({"10", "1000", "10000"})
+  public int nodes;
+
+  /** The group defining the nodes. */
+  private PermissionGroup group;
+  /** The String nodes tested. */
+  private String[] queries;
+  /** The String nodes parsed, with and without flags. */
+  private String[] nodesToParse;
+  /** The index of the next query. */
+  private int index;
+
+  @Setup
+  public void setup() {
+    group = BenchmarkData.group("group", nodes, "");
+    queries = BenchmarkData.queries(QUERIES, nodes);
+    nodesToParse = new String[QUERIES];
+    for (int next = 0; next < QUERIES; next++) {
+      String node = BenchmarkData.node(next);
+      nodesToParse[next] = next % 3 == 0 ? node : node + (next % 3 == 1 ? ":true" : ":0");
+    }
+  }
+
+  @Benchmark
+  public Node getClosestPermissionNode() {
+    return group.getClosestPermissionNode(queries[index++ & (QUERIES - 1)]);
+  }
+
+  @Benchmark
+  public Node fromString() {
+    return Node.fromString(nodesToParse[index++ & (QUERIES - 1)]);
+  }
+}
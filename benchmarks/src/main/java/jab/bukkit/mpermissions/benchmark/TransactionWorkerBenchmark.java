@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.benchmark;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.InProcessDBCollection;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import jab.mongo.MongoCollection;
+import jab.mongo.MongoDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Benchmarks for the MongoDatabaseTransactionWorker: queueing transactions with
+ * 'MongoDatabase.addTransaction(...)', waking the parked worker, and flushing them as bulk writes.
+ *
+ * <p>The collection is an InProcessDBCollection, which acknowledges bulk writes without a mongod,
+ * so the time measured is the worker's own. Each invocation returns once the collection has
+ * received every write request queued.
+ *
+ * @author Jab
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionWorkerBenchmark {
+
+  /** The amount of transactions queued per invocation. */
+  @Param({"1", "100", "1000"})
+  public int transactions;
+
+  /**
+   * The milliseconds the worker waits after waking, so more transactions join the flush.
+   * Transactions queued before the worker parks again are drained without the delay.
+   */
+  @Param({"0", "5"})
+  public long flushDelay;
+
+  /** The client the database is connected with. It points at a port nothing listens on. */
+  private MongoClient client;
+  /** The database whose worker is measured. */
+  private MongoDatabase database;
+  /** The collection receiving the bulk writes. */
+  private InProcessDBCollection dbCollection;
+  /** The collection the transactions are queued for. */
+  private MongoCollection collection;
+  /** The write requests queued so far. */
+  private long requests;
+
+  @Setup
+  public void setup() {
+    // The driver logs its failing attempts to reach the server.
+    MongoDatabase.setMongoDBLogger(Level.OFF);
+    client =
+        new MongoClient(
+            new ServerAddress("localhost", 1),
+            MongoClientOptions.builder().serverSelectionTimeout(100).build());
+    database = new BenchmarkDatabase();
+    database.getWorker().setFlushDelay(flushDelay);
+    database.connect(client);
+    dbCollection = new InProcessDBCollection(database.getDatabase(), "benchmark");
+    collection = new MongoCollection(database, dbCollection);
+    requests = 0L;
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    database.shutDown();
+    database.getWorker().awaitStop(TimeUnit.SECONDS.toMillis(5));
+    client.close();
+  }
+
+  @Benchmark
+  public long upsert() throws InterruptedException {
+    for (int index = 0; index < transactions; index++) {
+      // Every document is new, so the coalescer keeps every transaction.
+      collection.upsert(new BasicDBObject("id", requests++), "id", null);
+    }
+    dbCollection.awaitRequests(requests);
+    return requests;
+  }
+
+  @Benchmark
+  public long delete() throws InterruptedException {
+    for (int index = 0; index < transactions; index++) {
+      collection.delete("id", requests++);
+    }
+    dbCollection.awaitRequests(requests);
+    return requests;
+  }
+
+  /** MongoDatabase that only takes the DB from the client it is connected with. */
+  private static class BenchmarkDatabase extends MongoDatabase {
+
+    @Override
+    public void reset() {}
+
+    // InProcessDBCollection extends the legacy DBCollection, which needs a legacy DB.
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onConnection(MongoClient client) {
+      setDatabase(client.getDB("benchmark"));
+    }
+
+    @Override
+    public void onShutDown() {}
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.benchmark;
+
+import jab.bukkit.mpermissions.object.PermissionGroup;
+import jab.bukkit.mpermissions.object.PermissionUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for resolving permissions through groups defining wildcard nodes.
+ *
+ * @author Jab
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WildcardBenchmark {
+
+  /** The amount of queries cycled through, so no single answer is constant-folded. */
+  private static final int QUERIES = 1024;
+
+  /** The amount of wildcard nodes the group defines. */
+  @Param({"10", "1000", "10000"})
+  public int wildcards;
+
+  /** The group defining the nodes. */
+  private PermissionGroup group;
+  /** The user in the group. Checks go to the snapshot, so every check resolves. */
+  private PermissionUser user;
+  /** The String nodes tested. */
+  private String[] queries;
+  /** The index of the next query. */
+  private int index;
+
+  @Setup
+  public void setup() {
+    group = BenchmarkData.group("group", 1000, "");
+    for (int next = 0; next < wildcards; next++) {
+      // Mix whole-segment wildcards with segment globs.
+      String node =
+          next % 2 == 0
+              ? "plugin" + (next % 16) + ".*.node" + next
+              : "plugin" + (next % 16) + ".command" + (next % 32) + ".node" + next + "*";
+      group.setPermission(node, next % 3 != 0, false);
+    }
+    user = BenchmarkData.user(group, 10);
+    queries = BenchmarkData.queries(QUERIES, 1000);
+  }
+
+  @Benchmark
+  public boolean groupHasPermission() {
+    return group.hasPermission(queries[index++ & (QUERIES - 1)]);
+  }
+
+  @Benchmark
+  public Boolean userGetSnapshotFlag() {
+    return user.getSnapshot().getFlag(queries[index++ & (QUERIES - 1)]);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import jab.bukkit.mpermissions.mongo.MongoPermissionGroup;
+import jab.bukkit.mpermissions.object.PermissionGroup;
+import jab.mongo.MongoCollection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Class designed to load every PermissionGroup from MongoDB at once when the plug-in starts.
+ *
+ * <p>The groups collection is read through a single cursor. The PermissionGroups are then built in
+ * parallel, and linked to their parents in a second pass through a Map of the groups by Unique ID.
+ * Only the cursor's batches touch the network, and the rest of the work is linear in the amount
+ * of groups.
+ *
+ * @author Jab
+ */
+public class PermissionGroupLoader {
+
+  /** The default amount of documents fetched per round-trip. */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /** The MongoCollection storing PermissionGroups. */
+  private final MongoCollection collection;
+
+  /** The amount of documents fetched per round-trip. */
+  private final int batchSize;
+
+  /**
+   * Main constructor.
+   *
+   * @param collection The MongoCollection storing PermissionGroups.
+   * @param batchSize The amount of documents fetched per round-trip.
+   */
+  public PermissionGroupLoader(MongoCollection collection, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1.");
+    }
+    this.collection = collection;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Fetches, builds, and links every PermissionGroup.
+   *
+   * <p>(Note: This performs a blocking MongoDB query)
+   *
+   * @return Returns a Map of the loaded PermissionGroups, identified by their Unique ID.
+   */
+  public Map<UUID, PermissionGroup> loadAll() {
+    List<DBObject> listObjects = new ArrayList<>();
+    DBCursor cursor = collection.find(new BasicDBObject()).batchSize(batchSize);
+    try {
+      while (cursor.hasNext()) {
+        listObjects.add(cursor.next());
+      }
+    } finally {
+      cursor.close();
+    }
+    // Building a group only reads its own document, so the groups are built in parallel.
+    List<PermissionGroup> listGroups =
+        listObjects
+            .parallelStream()
+            .map(object -> new PermissionGroup(new MongoPermissionGroup(collection, object)))
+            .collect(Collectors.toList());
+    Map<UUID, PermissionGroup> mapGroups = new HashMap<>(listGroups.size() * 4 / 3 + 1);
+    for (PermissionGroup group : listGroups) {
+      mapGroups.put(group.getUniqueId(), group);
+    }
+    for (PermissionGroup group : listGroups) {
+      UUID parentId = group.getMongoDocument().getParentId();
+      if (parentId == null) {
+        continue;
+      }
+      PermissionGroup parent = mapGroups.get(parentId);
+      if (parent == null) {
+        System.err.println(
+            "Parent of PermissionGroup \""
+                + group.getGroupName()
+                + "\" does not exist: \""
+                + parentId
+                + "\".");
+      } else if (parent == group || parent.isChildOf(group)) {
+        System.err.println(
+            "Parent of PermissionGroup \""
+                + group.getGroupName()
+                + "\" would create a loop: \""
+                + parent.getGroupName()
+                + "\".");
+      } else {
+        group.loadParent(parent);
+      }
+    }
+    return mapGroups;
+  }
+
+  /** @return Returns the amount of documents fetched per round-trip. */
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+}
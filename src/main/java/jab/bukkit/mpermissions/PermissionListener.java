@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Listener to connect Players to the PermissionsModule as they join and leave the server.
+ *
+ * @author Jab
+ */
+public class PermissionListener implements Listener {
+
+  /** The PermissionsModule to connect Players to. */
+  private final PermissionsModule module;
+
+  /**
+   * Main constructor.
+   *
+   * @param module The PermissionsModule to connect Players to.
+   */
+  public PermissionListener(PermissionsModule module) {
+    this.module = module;
+  }
+
+  /**
+   * Loads the PermissionUser while the Player is still off the main thread. If the user cannot be
+   * loaded in time, the login is refused rather than letting the Player in without permissions.
+   *
+   * @param event The AsyncPlayerPreLoginEvent.
+   */
+  @EventHandler(priority = EventPriority.LOW)
+  public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+    if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+      return;
+    }
+    if (!module.prefetch(event.getUniqueId())) {
+      event.disallow(
+          AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
+          "Your permissions could not be loaded. Please try again.");
+    }
+  }
+
+  /**
+   * Discards the loaded PermissionUser if another plug-in refused the login after it was loaded.
+   *
+   * @param event The AsyncPlayerPreLoginEvent.
+   */
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onPreLoginResult(AsyncPlayerPreLoginEvent event) {
+    if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+      module.discard(event.getUniqueId());
+    }
+  }
+
+  /**
+   * Hands the loaded PermissionUser to the main thread and injects the MPermissible as early as
+   * possible, so that every other plug-in listening to the login sees MPermissions' answers.
+   *
+   * @param event The PlayerLoginEvent.
+   */
+  @EventHandler(priority = EventPriority.LOWEST)
+  public void onLogin(PlayerLoginEvent event) {
+    module.login(event.getPlayer());
+  }
+
+  /**
+   * Unloads the PermissionUser if the login was refused, and discards it if it was never taken.
+   *
+   * @param event The PlayerLoginEvent.
+   */
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onLoginResult(PlayerLoginEvent event) {
+    if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+      module.unload(event.getPlayer());
+      module.discard(event.getPlayer().getUniqueId());
+    }
+  }
+
+  /**
+   * Unloads the PermissionUser after every other plug-in has handled the Player leaving.
+   *
+   * @param event The PlayerQuitEvent.
+   */
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onQuit(PlayerQuitEvent event) {
+    module.unload(event.getPlayer());
+  }
+}
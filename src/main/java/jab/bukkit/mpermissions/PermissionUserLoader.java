@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import jab.bukkit.mpermissions.mongo.MongoPermissionUser;
+import jab.bukkit.mpermissions.object.PermissionUser;
+import jab.mongo.MongoCollection;
+import jab.mongo.document.MongoUniqueDocument;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class designed to load PermissionUsers from MongoDB before their Players join the server.
+ *
+ * <p>Users are fetched and built on a bounded pool of threads while the Player is still in the
+ * asynchronous pre-login phase. The built PermissionUser is then held until the main thread picks
+ * it up when the Player logs in, so no MongoDB round-trip is made on the server thread. Users whose
+ * login never reaches the server, such as when the connection drops, expire after a minute.
+ *
+ * @author Jab
+ */
+public class PermissionUserLoader {
+
+  /** The time, in nanoseconds, a loaded PermissionUser is held for its login. */
+  private static final long PREFETCH_EXPIRY = TimeUnit.MINUTES.toNanos(1L);
+
+  /** The MongoCollection storing PermissionUsers. */
+  private final MongoCollection collection;
+
+  /** The Logger to report failed loads to. */
+  private final Logger logger;
+
+  /** The bounded pool of threads loading PermissionUsers. */
+  private final ThreadPoolExecutor executor;
+
+  /** The time, in milliseconds, that a login waits for its PermissionUser to load. */
+  private final long timeout;
+
+  /**
+   * The Map of PermissionUsers loaded ahead of their login, identified by the Unique ID of their
+   * Player.
+   */
+  private final Map<UUID, Prefetched> mapPrefetched;
+
+  /**
+   * Main constructor.
+   *
+   * @param collection The MongoCollection storing PermissionUsers.
+   * @param logger The Logger to report failed loads to.
+   * @param threads The amount of threads loading PermissionUsers.
+   * @param queueSize The amount of loads that can wait for a thread before new loads are refused.
+   * @param timeout The time, in milliseconds, that a login waits for its PermissionUser to load.
+   */
+  public PermissionUserLoader(
+      MongoCollection collection, Logger logger, int threads, int queueSize, long timeout) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be at least 1.");
+    }
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("Queue size must be at least 1.");
+    }
+    this.collection = collection;
+    this.logger = logger;
+    this.timeout = timeout;
+    this.mapPrefetched = new ConcurrentHashMap<>();
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            new LoaderThreadFactory());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Loads the PermissionUser for a Player on the loader pool, and waits for the result.
+   *
+   * <p>(Note: This blocks the calling thread for up to the timeout. Only call this from the
+   * asynchronous pre-login thread)
+   *
+   * @param playerId The Unique ID of the Player logging in.
+   * @return Returns true if the PermissionUser is loaded and waiting for the login. Returns false
+   *     if the pool is saturated, the load failed, or the load did not finish before the timeout.
+   */
+  public boolean prefetch(UUID playerId) {
+    expire();
+    Future<PermissionUser> future;
+    try {
+      future = executor.submit(() -> load(playerId));
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+    try {
+      PermissionUser user = future.get(timeout, TimeUnit.MILLISECONDS);
+      mapPrefetched.put(playerId, new Prefetched(user));
+      return true;
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      return false;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      logger.log(
+          Level.SEVERE, "Failed to load PermissionUser: \"" + playerId + "\".", e.getCause());
+      return false;
+    }
+  }
+
+  /**
+   * Loads the PermissionUsers for several Players at once, such as the Players already online when
+   * the plug-in starts. The documents are fetched through a single query, and the loaded
+   * PermissionUsers wait to be taken like those loaded by 'prefetch(UUID)'.
+   *
+   * <p>(Note: This performs a blocking MongoDB query, and should not be called on the main thread)
+   *
+   * @param playerIds The Unique IDs of the Players.
+   * @param batchSize The amount of documents fetched per round-trip.
+   */
+  public void prefetchAll(Collection<UUID> playerIds, int batchSize) {
+    if (playerIds.isEmpty()) {
+      return;
+    }
+    BasicDBList listIds = new BasicDBList();
+    // IDs are matched both as UUID values and as Strings, like 'createIdQuery(UUID)'.
+    for (UUID playerId : playerIds) {
+      listIds.add(playerId);
+      listIds.add(playerId.toString());
+    }
+    Set<UUID> setMissing = new HashSet<>(playerIds);
+    DBObject query = new BasicDBObject("id", new BasicDBObject("$in", listIds));
+    DBCursor cursor = collection.find(query).batchSize(batchSize);
+    try {
+      while (cursor.hasNext()) {
+        PermissionUser user =
+            new PermissionUser(new MongoPermissionUser(collection, cursor.next()));
+        setMissing.remove(user.getUniqueId());
+        mapPrefetched.put(user.getUniqueId(), new Prefetched(user));
+      }
+    } finally {
+      cursor.close();
+    }
+    // Players without a document get a new PermissionUser.
+    for (UUID playerId : setMissing) {
+      PermissionUser user = new PermissionUser(new MongoPermissionUser(collection, playerId));
+      mapPrefetched.put(playerId, new Prefetched(user));
+    }
+  }
+
+  /**
+   * Takes the PermissionUser loaded ahead of a login. This is called on the main thread once the
+   * Player logs in.
+   *
+   * @param playerId The Unique ID of the Player.
+   * @return Returns the loaded PermissionUser, or null if none was loaded for the Player.
+   */
+  public PermissionUser take(UUID playerId) {
+    Prefetched prefetched = mapPrefetched.remove(playerId);
+    return prefetched != null ? prefetched.user : null;
+  }
+
+  /**
+   * Discards the PermissionUser loaded ahead of a login that did not go through.
+   *
+   * @param playerId The Unique ID of the Player.
+   */
+  public void discard(UUID playerId) {
+    mapPrefetched.remove(playerId);
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Discards the PermissionUsers held for longer than any login takes to reach the server.
+   */
+  private void expire() {
+    long now = System.nanoTime();
+    mapPrefetched.values().removeIf(prefetched -> now - prefetched.time > PREFETCH_EXPIRY);
+  }
+
+  /**
+   * Fetches and builds the PermissionUser for a Player. If the Player has no document, a new
+   * PermissionUser is created.
+   *
+   * <p>(Note: This performs a blocking MongoDB query, and should not be called on the main thread)
+   *
+   * @param playerId The Unique ID of the Player.
+   * @return Returns the built PermissionUser.
+   */
+  public PermissionUser load(UUID playerId) {
+    DBObject object = collection.findOne(MongoUniqueDocument.createIdQuery(playerId));
+    MongoPermissionUser mongoDocument;
+    if (object != null) {
+      mongoDocument = new MongoPermissionUser(collection, object);
+    } else {
+      mongoDocument = new MongoPermissionUser(collection, playerId);
+    }
+    return new PermissionUser(mongoDocument);
+  }
+
+  /** Stops the loader pool. Loads that are still waiting are discarded. */
+  public void shutDown() {
+    executor.shutdownNow();
+    mapPrefetched.clear();
+  }
+
+  /** A PermissionUser loaded ahead of its login, with the time it was loaded. */
+  private static class Prefetched {
+
+    /** The loaded PermissionUser. */
+    private final PermissionUser user;
+    /** The System.nanoTime() when the PermissionUser was loaded. */
+    private final long time;
+
+    /**
+     * Main constructor.
+     *
+     * @param user The loaded PermissionUser.
+     */
+    private Prefetched(PermissionUser user) {
+      this.user = user;
+      this.time = System.nanoTime();
+    }
+  }
+
+  /** ThreadFactory naming the loader threads, and keeping them from holding the JVM open. */
+  private static class LoaderThreadFactory implements ThreadFactory {
+
+    /** The counter to number the threads. */
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "MPermissions-Loader-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
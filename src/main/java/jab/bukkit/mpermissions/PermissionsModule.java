@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions;
+
+import jab.bukkit.mpermissions.mongo.MongoPermissionsDatabase;
+import jab.bukkit.mpermissions.object.PermissionGroup;
+import jab.bukkit.mpermissions.object.PermissionUser;
+import jab.bukkit.mpermissions.permissible.MPermissible;
+import jab.bukkit.mpermissions.permissible.PermissibleInjector;
+import org.bukkit.entity.Player;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class designed to hold the loaded PermissionGroups and PermissionUsers for the MPermissions
+ * plug-in, and to connect them to the Players on the server.
+ *
+ * @author Jab
+ */
+public class PermissionsModule {
+
+  /** The plug-in instance running the module. */
+  private final PluginMPermissions plugin;
+
+  /** The MongoDatabase storing the data for the module. */
+  private final MongoPermissionsDatabase database;
+
+  /** The loader fetching PermissionUsers ahead of their login. */
+  private final PermissionUserLoader loader;
+
+  /** The injector replacing the PermissibleBase of Players. */
+  private final PermissibleInjector injector;
+
+  /** The Map of loaded PermissionGroups, identified by their Unique ID. */
+  private final Map<UUID, PermissionGroup> mapGroups;
+
+  /** The Map of loaded PermissionUsers, identified by the Unique ID of their Player. */
+  private final Map<UUID, PermissionUser> mapUsers;
+
+  /**
+   * Main constructor.
+   *
+   * @param plugin The plug-in instance running the module.
+   * @param database The MongoDatabase storing the data for the module.
+   * @param loader The loader fetching PermissionUsers ahead of their login.
+   */
+  public PermissionsModule(
+      PluginMPermissions plugin, MongoPermissionsDatabase database, PermissionUserLoader loader) {
+    this.plugin = plugin;
+    this.database = database;
+    this.loader = loader;
+    this.injector = new PermissibleInjector();
+    this.mapGroups = new ConcurrentHashMap<>();
+    this.mapUsers = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Loads the PermissionUser for a Player that is logging in. This is called from the
+   * asynchronous pre-login thread.
+   *
+   * @param playerId The Unique ID of the Player.
+   * @return Returns true if the PermissionUser is loaded and ready for the login.
+   */
+  public boolean prefetch(UUID playerId) {
+    return loader.prefetch(playerId);
+  }
+
+  /**
+   * Discards a PermissionUser loaded for a login that was refused.
+   *
+   * @param playerId The Unique ID of the Player.
+   */
+  public void discard(UUID playerId) {
+    loader.discard(playerId);
+  }
+
+  /**
+   * Handles a Player logging in on the main thread. The PermissionUser loaded ahead of the login
+   * is linked to its PermissionGroup and registered, and the MPermissible is injected.
+   *
+   * @param player The Player logging in.
+   * @return Returns the injected MPermissible.
+   */
+  public MPermissible login(Player player) {
+    PermissionUser user = loader.take(player.getUniqueId());
+    if (user != null) {
+      // Linking to the group touches the group's member list, so it is done here on the main
+      // thread rather than on the loader thread.
+      PermissionGroup group = getGroup(user.getGroupId());
+      if (group != null) {
+        user.setPermissionGroup(group, false);
+      }
+      addUser(user);
+    }
+    return inject(player);
+  }
+
+  /**
+   * Injects the MPermissible into a Player, answering from the Player's PermissionUser if one is
+   * loaded.
+   *
+   * @param player The Player to inject.
+   * @return Returns the injected MPermissible.
+   */
+  public MPermissible inject(Player player) {
+    return injector.inject(player, getUser(player.getUniqueId()));
+  }
+
+  /**
+   * Restores the original PermissibleBase of a Player.
+   *
+   * @param player The Player to restore.
+   */
+  public void uninject(Player player) {
+    injector.uninject(player);
+  }
+
+  /**
+   * Handles a Player leaving the server. The PermissionUser is unloaded, and unlinked from its
+   * PermissionGroup.
+   *
+   * @param player The Player leaving.
+   */
+  public void unload(Player player) {
+    injector.forget(player);
+    PermissionUser user = removeUser(player.getUniqueId());
+    if (user != null) {
+      PermissionGroup group = user.getPermissionGroup();
+      if (group != null) {
+        group.unlinkMember(user);
+      }
+    }
+  }
+
+  /**
+   * @param uniqueId The Unique ID of the PermissionGroup.
+   * @return Returns the loaded PermissionGroup, or null if none is loaded with the Unique ID.
+   */
+  public PermissionGroup getGroup(UUID uniqueId) {
+    return uniqueId != null ? mapGroups.get(uniqueId) : null;
+  }
+
+  /**
+   * Adds a loaded PermissionGroup to the module.
+   *
+   * @param group The PermissionGroup to add.
+   */
+  public void addGroup(PermissionGroup group) {
+    mapGroups.put(group.getUniqueId(), group);
+  }
+
+  /** @return Returns a Collection of the loaded PermissionGroups. */
+  public Collection<PermissionGroup> getGroups() {
+    return mapGroups.values();
+  }
+
+  /**
+   * @param uniqueId The Unique ID of the Player.
+   * @return Returns the loaded PermissionUser, or null if none is loaded for the Player.
+   */
+  public PermissionUser getUser(UUID uniqueId) {
+    return uniqueId != null ? mapUsers.get(uniqueId) : null;
+  }
+
+  /**
+   * Adds a loaded PermissionUser to the module.
+   *
+   * @param user The PermissionUser to add.
+   */
+  public void addUser(PermissionUser user) {
+    mapUsers.put(user.getUniqueId(), user);
+  }
+
+  /**
+   * Removes a loaded PermissionUser from the module.
+   *
+   * @param uniqueId The Unique ID of the Player.
+   * @return Returns the removed PermissionUser, or null if none was loaded.
+   */
+  public PermissionUser removeUser(UUID uniqueId) {
+    return mapUsers.remove(uniqueId);
+  }
+
+  /** @return Returns a Collection of the loaded PermissionUsers. */
+  public Collection<PermissionUser> getUsers() {
+    return mapUsers.values();
+  }
+
+  /** @return Returns the plug-in instance running the module. */
+  public PluginMPermissions getPlugin() {
+    return this.plugin;
+  }
+
+  /** @return Returns the MongoDatabase storing the data for the module. */
+  public MongoPermissionsDatabase getDatabase() {
+    return this.database;
+  }
+
+  /** @return Returns the loader fetching PermissionUsers ahead of their login. */
+  public PermissionUserLoader getLoader() {
+    return this.loader;
+  }
+
+  /** @return Returns the injector replacing the PermissibleBase of Players. */
+  public PermissibleInjector getInjector() {
+    return this.injector;
+  }
+}
@@ -1,23 +1,208 @@
 package jab.bukkit.mpermissions;
 
+import jab.bukkit.mpermissions.mongo.MongoPermissionsDatabase;
+import jab.bukkit.mpermissions.object.PermissionCache;
+import jab.bukkit.mpermissions.object.PermissionGroup;
+import jab.metrics.LoggerMetricsExporter;
+import jab.metrics.MetricsRegistry;
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.mongo.action.MongoAction;
+import jab.mongo.transaction.MongoTransactionJournal;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+
 public class PluginMPermissions extends JavaPlugin {
 
+    /** The longest time, in milliseconds, to wait for queued writes when the plug-in disables. */
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+
+    private MongoPermissionsDatabase database;
+    private PermissionsModule module;
+
     @Override
     public void onEnable() {
-
+        saveDefaultConfig();
+        FileConfiguration config = getConfig();
+        database = new MongoPermissionsDatabase(config.getString("mongodb.database", "mpermissions"));
+        database.setLogger(getLogger());
+        database.connect(
+                config.getString("mongodb.url", "localhost:27017"),
+                emptyToNull(config.getString("mongodb.username", "")),
+                emptyToNull(config.getString("mongodb.password", "")),
+                emptyToNull(config.getString("mongodb.authdb", "")));
+        database.getWorker().setFlushDelay(config.getLong("mongodb.flush-delay", 50L));
+        database.getWorker().setBatchSize(config.getInt("mongodb.batch-size", 1000));
+        database.getWorker().setBulkSize(config.getInt("mongodb.bulk-size", 1000));
+        // Actions stay readable by servers not yet upgraded until this is raised to 2.
+        MongoAction.setWriteVersion(
+                config.getInt("actions.args-version", MongoAction.ARGS_VERSION_JOINED));
+        // Writes left over from a crash are replayed before anything is loaded.
+        if (config.getBoolean("journal.enabled", true)) {
+            openJournal(
+                    new File(getDataFolder(), config.getString("journal.file", "journal.dat")),
+                    config.getInt("journal.size", 4) * 1024 * 1024,
+                    config.getBoolean("journal.sync", false));
+        }
+        PermissionCache.setDefaultSize(config.getInt("cache.size", PermissionCache.DEFAULT_SIZE));
+        FlightRecorderSupport.setPermissionSampleRate(config.getInt(
+                "jfr.permission-sample-rate", FlightRecorderSupport.DEFAULT_PERMISSION_SAMPLE_RATE));
+        PermissionUserLoader loader =
+                new PermissionUserLoader(
+                        database.getUserCollection(),
+                        getLogger(),
+                        config.getInt("loader.threads", 4),
+                        config.getInt("loader.queue", 256),
+                        config.getLong("loader.timeout", 5000L));
+        module = new PermissionsModule(this, database, loader);
+        // Groups are needed before anyone logs in, so they are loaded here, all at once.
+        int batchSize =
+                config.getInt("loader.batch-size", PermissionGroupLoader.DEFAULT_BATCH_SIZE);
+        PermissionGroupLoader groupLoader =
+                new PermissionGroupLoader(database.getGroupCollection(), batchSize);
+        for (PermissionGroup group : groupLoader.loadAll().values()) {
+            module.addGroup(group);
+        }
+        registerMetrics(
+                database.getMetrics(),
+                config.getLong("metrics.export-interval", 60L),
+                config.getBoolean("metrics.log", false));
+        getServer().getPluginManager().registerEvents(new PermissionListener(module), this);
+        // Players already online (after a reload) never fire the login events. Load their users
+        // off the main thread in one query, and hand them over once they are ready.
+        List<Player> listPlayers = new ArrayList<>(getServer().getOnlinePlayers());
+        List<UUID> listPlayerIds = new ArrayList<>();
+        for (Player player : listPlayers) {
+            module.inject(player);
+            listPlayerIds.add(player.getUniqueId());
+        }
+        if (!listPlayers.isEmpty()) {
+            getServer().getScheduler().runTaskAsynchronously(this, () -> {
+                loader.prefetchAll(listPlayerIds, batchSize);
+                getServer().getScheduler().runTask(this, () -> {
+                    for (Player player : listPlayers) {
+                        if (player.isOnline()) {
+                            module.login(player);
+                        } else {
+                            loader.discard(player.getUniqueId());
+                        }
+                    }
+                });
+            });
+        }
     }
 
     @Override
     public void onDisable() {
-
+        if (module != null) {
+            for (Player player : getServer().getOnlinePlayers()) {
+                module.uninject(player);
+            }
+            module.getLoader().shutDown();
+            module = null;
+        }
+        if (database != null) {
+            database.shutDown();
+            // The next instance opens the same journal, so the worker must let go of it first.
+            try {
+                if (!database.getWorker().awaitStop(SHUTDOWN_TIMEOUT)) {
+                    getLogger().warning("Queued writes did not finish before shutting down.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            database = null;
+        }
     }
 
     @Override
     public boolean onCommand(CommandSender commandSender, Command command, String label, String[] args) {
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats") && database != null) {
+            commandSender.sendMessage("MPermissions stats:");
+            for (String line : database.getMetrics().format()) {
+                commandSender.sendMessage("  " + line);
+            }
+            return true;
+        }
         return false;
     }
+
+    /**
+     * Opens the transaction journal, replays the writes left in it, and journals every write from
+     * then on. If the journal cannot be opened or replayed, the plug-in runs without it, and the
+     * writes left in it are kept for the next start.
+     *
+     * @param file The File storing the journal.
+     * @param capacity The size, in bytes, of the journal file when it is created.
+     * @param sync Flag for forcing every write to the disk.
+     */
+    private void openJournal(File file, int capacity, boolean sync) {
+        MongoTransactionJournal journal = null;
+        try {
+            journal = new MongoTransactionJournal(file, capacity);
+            journal.setSync(sync);
+            journal.open();
+            int replayed = journal.replay(database);
+            if (replayed > 0) {
+                getLogger().info("Replayed " + replayed + " journaled write(s).");
+            }
+            database.setJournal(journal);
+        } catch (IOException | RuntimeException e) {
+            getLogger().log(Level.SEVERE, "Failed to open the journal. Writes are not journaled.", e);
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ignored) {
+                    // The journal is already unusable.
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the permission metrics, and starts exporting the metrics to the registered
+     * MetricsExporters.
+     *
+     * @param registry The MetricsRegistry of the database.
+     * @param exportInterval The time, in seconds, between exports. 0 disables exporting.
+     * @param log Flag for writing the metrics to the server log on every export.
+     */
+    private void registerMetrics(MetricsRegistry registry, long exportInterval, boolean log) {
+        registry.gauge("permissions.checks", PermissionCache::getChecks);
+        registry.rate("permissions.checks.rate", PermissionCache::getChecks);
+        registry.gauge("permissions.cache.hit-rate", PermissionCache::getHitRate);
+        registry.gauge("permissions.groups", () -> module.getGroups().size());
+        registry.gauge("mongo.bulk.writes", database.getWorker().getMetrics()::getBulkCount);
+        if (log) {
+            registry.addExporter(new LoggerMetricsExporter(getLogger()));
+        }
+        // Other plug-ins can add exporters at any time through 'getMetrics()'.
+        if (exportInterval > 0) {
+            long ticks = exportInterval * 20L;
+            getServer().getScheduler()
+                    .runTaskTimerAsynchronously(this, registry::export, ticks, ticks);
+        }
+    }
+
+    /** @return Returns the MetricsRegistry of the plug-in, or null while the plug-in is disabled. */
+    public MetricsRegistry getMetrics() {
+        return database != null ? database.getMetrics() : null;
+    }
+
+    public PermissionsModule getModule() {
+        return this.module;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.mongo;
+
+import com.mongodb.MongoClient;
+import jab.mongo.MongoCollection;
+import jab.mongo.MongoDatabase;
+import jab.mongo.MongoIndex;
+
+/**
+ * MongoDatabase storing the collections for the MPermissions plug-in.
+ *
+ * @author Jab
+ */
+public class MongoPermissionsDatabase extends MongoDatabase {
+
+  /** The String name of the collection storing PermissionGroups. */
+  public static final String COLLECTION_GROUPS = "groups";
+  /** The String name of the collection storing PermissionUsers. */
+  public static final String COLLECTION_USERS = "users";
+
+  /** The String name of the database storing the collections. */
+  private final String databaseName;
+
+  /** The MongoCollection storing PermissionGroups. */
+  private MongoCollection collectionGroups;
+  /** The MongoCollection storing PermissionUsers. */
+  private MongoCollection collectionUsers;
+
+  /**
+   * Main constructor.
+   *
+   * @param databaseName The String name of the database storing the collections.
+   */
+  public MongoPermissionsDatabase(String databaseName) {
+    super();
+    this.databaseName = databaseName;
+  }
+
+  // The legacy DB and DBCollection API is the one MongoDatabase and MongoCollection are built on
+  // with driver 3.4.2, and getDB(String) is the only way to reach it.
+  @SuppressWarnings("deprecation")
+  @Override
+  public void onConnection(MongoClient client) {
+    setDatabase(client.getDB(databaseName));
+    collectionGroups = createMongoCollection(COLLECTION_GROUPS);
+    collectionUsers = createMongoCollection(COLLECTION_USERS);
+    // New documents are inserted, relying on the unique indexes to reject IDs already in use.
+    collectionGroups.addIndex(MongoIndex.unique("id"));
+    collectionGroups.addIndex(MongoIndex.ascending("parentId"));
+    collectionGroups.addIndex(MongoIndex.ascending("name"));
+    collectionUsers.addIndex(MongoIndex.unique("id"));
+    collectionUsers.addIndex(MongoIndex.ascending("groupId"));
+    collectionGroups.reconcileIndexes();
+    collectionUsers.reconcileIndexes();
+  }
+
+  @Override
+  public void reset() {
+    collectionGroups = null;
+    collectionUsers = null;
+  }
+
+  @Override
+  public void onShutDown() {
+    // The transaction worker finishes the remaining transactions before stopping.
+  }
+
+  /** @return Returns the MongoCollection storing PermissionGroups. */
+  public MongoCollection getGroupCollection() {
+    return this.collectionGroups;
+  }
+
+  /** @return Returns the MongoCollection storing PermissionUsers. */
+  public MongoCollection getUserCollection() {
+    return this.collectionUsers;
+  }
+}
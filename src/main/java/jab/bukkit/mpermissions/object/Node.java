@@ -28,6 +28,9 @@ public class Node {
   /** The MongoDocumentEntry to store the data. */
   private MongoNode mongoNode;
 
+  /** The ID of the node in the global NodeDictionary. NO_ID until the ID is first requested. */
+  private int id = NodeDictionary.NO_ID;
+
   /**
    * MongoDB constructor.
    *
@@ -75,8 +78,8 @@ public class Node {
    */
   public boolean isNode(String node) {
     boolean returned = false;
-    node = node.toLowerCase();
-    if (node.equals(getNode())) {
+    // Nodes are stored in lower-case. Compare without creating a lower-case copy.
+    if (getNode().equalsIgnoreCase(node)) {
       returned = true;
     }
     return returned;
@@ -89,7 +92,7 @@ public class Node {
    * @return Returns true if the Node is a super-node of this Node.
    */
   public boolean isSuperNode(Node node) {
-    return isNode(node.getNode());
+    return isSuperNode(node.getNode());
   }
 
   /**
@@ -101,11 +104,9 @@ public class Node {
   public boolean isSuperNode(String node) {
     // Our flag to return.
     boolean returned = false;
-    // Format the argument.
-    node = node.toLowerCase();
-    // Check if the node contains our given node string.
+    // Check if the given node string is a dot-separated prefix of the node.
     // Make sure that the node does not equal the given node.
-    if (!getNode().equals(node) && getNode().contains(node)) {
+    if (isPrefix(node, getNode())) {
       // If this is true, then it is a super-node.
       returned = true;
     }
@@ -132,11 +133,9 @@ public class Node {
   public boolean isSubNode(String node) {
     // Our flag to return.
     boolean returned = false;
-    // Format the argument.
-    node = node.toLowerCase();
-    // Check if our given node string contains the node.
+    // Check if the node is a dot-separated prefix of our given node string.
     // Make sure that the node does not equal the given node.
-    if (!getNode().equals(node) && node.contains(getNode())) {
+    if (isPrefix(getNode(), node)) {
       // If this is true, then it is a sub-node.
       returned = true;
     }
@@ -149,6 +148,28 @@ public class Node {
     return getMongoDocument().getNode();
   }
 
+  /**
+   * @return Returns the ID of the String node in the global NodeDictionary. The node is interned
+   *     the first time the ID is requested.
+   */
+  public int getId() {
+    int returned = this.id;
+    if (returned == NodeDictionary.NO_ID) {
+      // Interning is idempotent, so racing threads store the same ID.
+      returned = NodeDictionary.getGlobal().intern(getNode());
+      this.id = returned;
+    }
+    return returned;
+  }
+
+  /**
+   * @return Returns true if the node is a wildcard pattern, such as 'essentials.*', matching other
+   *     nodes instead of naming one.
+   */
+  public boolean isWildcard() {
+    return NodeMatcher.isPattern(getNode());
+  }
+
   /** @return Returns the explicitly-defined Boolean flag for the node. */
   public boolean getFlag() {
     return getMongoDocument().getFlag();
@@ -176,6 +197,27 @@ public class Node {
    */
   public void setMongoDocument(MongoNode mongoNode) {
     this.mongoNode = mongoNode;
+    this.id = NodeDictionary.NO_ID;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Checks if a String node is a super-node of another String node. Only whole segments are
+   * compared, so "bukkit.command" is a super-node of "bukkit.command.help", but not of
+   * "bukkit.commands".
+   *
+   * <p>Case is ignored, and no Strings are created.
+   *
+   * @param superNode The String node being tested as the super-node.
+   * @param subNode The String node being tested as the sub-node.
+   * @return Returns true if the super-node is a dot-separated prefix of the sub-node.
+   */
+  private static boolean isPrefix(String superNode, String subNode) {
+    int length = superNode.length();
+    return subNode.length() > length
+        && subNode.charAt(length) == NodeTrie.SEPARATOR
+        && subNode.regionMatches(true, 0, superNode, 0, length);
   }
 
   /**
@@ -202,15 +244,16 @@ public class Node {
     boolean flag = true;
     // If an argument is provided, then we grab the result. It must either be 'true'
     // or '1'.
-    if (node.contains(":")) {
-      // Split the node into arguments.
-      String[] argSplit = node.split(":");
-      // Re-assign the node variable to only the node itself.
-      node = argSplit[0];
+    int index = node.indexOf(':');
+    if (index != -1) {
+      // Grab the argument, and re-assign the node variable to only the node itself.
+      String arg = node.substring(index + 1).trim();
+      node = node.substring(0, index);
       // Set the flag if it equals 1 or true. All other entries will be flagged false.
-      flag = argSplit[1].equals("1") || argSplit[1].equalsIgnoreCase("true");
+      flag = arg.equals("1") || arg.equalsIgnoreCase("true");
     }
-    // Create a temporary MongoDocument for the node.
+    // Create a temporary MongoDocument for the node. The MongoNode formats the node once, here,
+    // so nothing testing the Node needs to format it again.
     MongoNode mongoNode = new MongoNode(null, node, flag);
     // Create the Node object.
     return new Node(mongoNode);
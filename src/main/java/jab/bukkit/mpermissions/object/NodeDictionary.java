@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.object;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Global dictionary that interns every distinct String node into a dense int ID.
+ *
+ * <p>Compiled permissions store their flags as bits indexed by these IDs, instead of holding
+ * Strings. The dictionary is a trie split on the same segments as NodeTrie, so the ID of a node and
+ * of each of its super-nodes are found in one walk of the node being tested, without creating
+ * sub-strings.
+ *
+ * <p>Looking up IDs is lock-free and can be done from any thread. Interning new nodes is
+ * synchronized. IDs are never released, so the dictionary only grows with the amount of distinct
+ * nodes defined over the life of the server.
+ *
+ * @author Jab
+ */
+public final class NodeDictionary {
+
+  /** The ID returned for nodes that are not in the dictionary. */
+  public static final int NO_ID = -1;
+
+  /** The dictionary shared by every PermissionObject. */
+  private static final NodeDictionary GLOBAL = new NodeDictionary();
+
+  /** The root entry. This entry represents no segment, and never has an ID. */
+  private final Entry root = new Entry(null, 0);
+
+  /** The String nodes, indexed by their ID. */
+  private volatile String[] nodes = new String[64];
+
+  /** The amount of IDs assigned. */
+  private volatile int size;
+
+  /** @return Returns the dictionary shared by every PermissionObject. */
+  public static NodeDictionary getGlobal() {
+    return GLOBAL;
+  }
+
+  /**
+   * Grabs the ID for a String node, assigning the next ID if the node is not in the dictionary.
+   *
+   * @param node The String node to intern. The node should be formatted in lower-case, as nodes
+   *     differing only by case share one ID.
+   * @return Returns the ID of the node.
+   */
+  public int intern(String node) {
+    if (node == null) {
+      throw new IllegalArgumentException("Node given is null.");
+    }
+    // Most nodes are interned already. Check without the lock first.
+    int id = getId(node);
+    if (id != NO_ID) {
+      return id;
+    }
+    synchronized (this) {
+      // Walk the trie, creating entries for segments that do not exist yet.
+      Entry entry = root;
+      int start = NodeTrie.trimStart(node);
+      int length = NodeTrie.trimEnd(node, start);
+      while (true) {
+        int end = NodeTrie.nextSeparator(node, start, length);
+        Entry child = entry.getChild(node, start, end);
+        if (child == null) {
+          child = entry.addChild(node.substring(start, end));
+        }
+        entry = child;
+        if (end == length) {
+          break;
+        }
+        start = end + 1;
+      }
+      // Another thread may have interned the node while this one waited for the lock.
+      if (entry.id != NO_ID) {
+        return entry.id;
+      }
+      id = size;
+      String[] nodes = this.nodes;
+      if (id == nodes.length) {
+        String[] grown = new String[nodes.length * 2];
+        System.arraycopy(nodes, 0, grown, 0, nodes.length);
+        nodes = grown;
+      }
+      nodes[id] = node;
+      this.nodes = nodes;
+      // Publish the ID last, so a reader that finds it also finds the node for it.
+      size = id + 1;
+      entry.id = id;
+      return id;
+    }
+  }
+
+  /**
+   * @param node The String node to look up.
+   * @return Returns the ID of the String node, or NO_ID if the node is not in the dictionary.
+   */
+  public int getId(String node) {
+    if (node == null) {
+      return NO_ID;
+    }
+    Entry entry = root;
+    int start = NodeTrie.trimStart(node);
+    int length = NodeTrie.trimEnd(node, start);
+    while (true) {
+      int end = NodeTrie.nextSeparator(node, start, length);
+      entry = entry.getChild(node, start, end);
+      if (entry == null) {
+        return NO_ID;
+      }
+      if (end == length) {
+        return entry.id;
+      }
+      start = end + 1;
+    }
+  }
+
+  /**
+   * Grabs the ID of the most specific definition for a String node. This is either the ID of the
+   * node itself, or the ID of its deepest super-node, whose bit is set in the given BitSet.
+   *
+   * @param node The String node being tested.
+   * @param defined The BitSet of defined IDs.
+   * @return Returns the ID of the closest defined node, or NO_ID if none is defined.
+   */
+  public int getClosestId(String node, BitSet defined) {
+    if (node == null) {
+      return NO_ID;
+    }
+    int returned = NO_ID;
+    Entry entry = root;
+    int start = NodeTrie.trimStart(node);
+    int length = NodeTrie.trimEnd(node, start);
+    while (true) {
+      int end = NodeTrie.nextSeparator(node, start, length);
+      entry = entry.getChild(node, start, end);
+      // There are no more specific definitions past this point.
+      if (entry == null) {
+        break;
+      }
+      // Store the most specific definition found so far.
+      int id = entry.id;
+      if (id != NO_ID && defined.get(id)) {
+        returned = id;
+      }
+      if (end == length) {
+        break;
+      }
+      start = end + 1;
+    }
+    return returned;
+  }
+
+  /**
+   * @param id The ID to look up.
+   * @return Returns the String node for the ID, or null if the ID is not assigned.
+   */
+  public String getNode(int id) {
+    if (id < 0 || id >= size) {
+      return null;
+    }
+    return nodes[id];
+  }
+
+  /** @return Returns the amount of IDs assigned. */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Entry for a single segment in the dictionary. Entries are never removed. Children are inserted
+   * into the child table in place, with a volatile store of the filled-in entry, and the table is
+   * only replaced when it grows, once the new table is filled.
+   */
+  private static class Entry {
+
+    /** The String segment of the entry. */
+    private final String segment;
+    /** The hash of the segment. */
+    private final int hash;
+    /** The ID of the node ending at this entry, or NO_ID if the node is not interned. */
+    private volatile int id = NO_ID;
+    /** The table of child entries. Null until the first child is added. */
+    private volatile AtomicReferenceArray<Entry> children;
+    /** The amount of child entries. Only used while holding the dictionary lock. */
+    private int childCount;
+
+    /**
+     * Main constructor.
+     *
+     * @param segment The String segment of the entry.
+     * @param hash The hash of the segment.
+     */
+    private Entry(String segment, int hash) {
+      this.segment = segment;
+      this.hash = hash;
+    }
+
+    /**
+     * @param node The String containing the segment.
+     * @param start The start of the segment. (Inclusive)
+     * @param end The end of the segment. (Exclusive)
+     * @return Returns the child entry for the segment, or null if none exists.
+     */
+    private Entry getChild(String node, int start, int end) {
+      AtomicReferenceArray<Entry> children = this.children;
+      if (children == null) {
+        return null;
+      }
+      int length = end - start;
+      int hash = NodeTrie.hash(node, start, end);
+      int mask = children.length() - 1;
+      int index = NodeTrie.spread(hash) & mask;
+      Entry child;
+      while ((child = children.get(index)) != null) {
+        if (child.hash == hash
+            && child.segment.length() == length
+            && child.segment.regionMatches(true, 0, node, start, length)) {
+          return child;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    /**
+     * Adds a child entry for the given String segment. The segment must not already exist. This
+     * must be called while holding the dictionary lock.
+     *
+     * @param segment The String segment to add.
+     * @return Returns the created child entry.
+     */
+    private Entry addChild(String segment) {
+      AtomicReferenceArray<Entry> children = this.children;
+      // Keep the table at most half full so probes stay short. Doubling keeps the cost of growing
+      // constant per child.
+      if (children == null) {
+        children = new AtomicReferenceArray<>(4);
+        this.children = children;
+      } else if ((childCount + 1) * 2 > children.length()) {
+        AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(children.length() * 2);
+        for (int index = 0; index < children.length(); index++) {
+          Entry next = children.get(index);
+          if (next != null) {
+            insert(table, next);
+          }
+        }
+        // Publish the filled table. Readers still probing the old table find the same entries.
+        this.children = table;
+        children = table;
+      }
+      Entry child = new Entry(segment, NodeTrie.hash(segment, 0, segment.length()));
+      insert(children, child);
+      childCount++;
+      return child;
+    }
+
+    /**
+     * @param table The table to insert into.
+     * @param child The child entry to insert.
+     */
+    private static void insert(AtomicReferenceArray<Entry> table, Entry child) {
+      int mask = table.length() - 1;
+      int index = NodeTrie.spread(child.hash) & mask;
+      while (table.get(index) != null) {
+        index = (index + 1) & mask;
+      }
+      // The volatile store publishes the entry fully built.
+      table.set(index, child);
+    }
+  }
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.object;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Immutable automaton matching String nodes against wildcard patterns.
+ *
+ * <p>Patterns are nodes containing '*'. A segment that is only '*' matches any one segment, and a
+ * segment such as 'build_*' matches any segment starting with 'build_'. As with every other node,
+ * a pattern also applies to every sub-node of the nodes it matches, so 'essentials.*' covers
+ * 'essentials.fly' and 'essentials.fly.other', but not 'essentials' itself.
+ *
+ * <p>The patterns are compiled into one trie of pattern segments. Matching walks the segments of
+ * the node being tested once, following the literal, '*' and glob branches that accept each
+ * segment, and keeps the most specific pattern that matched. Literal branches are found through a
+ * hash table, and glob branches through hash tables keyed by the literal prefix or suffix of the
+ * glob, so the cost of a match depends on the patterns along the path of the node, not on the
+ * amount of patterns compiled. Matching does not allocate.
+ *
+ * <p>Specificity is compared by the amount of segments matched, then by the amount of literal
+ * segments in the pattern, then by the amount of literal characters. If two patterns are equally
+ * specific, the deny wins.
+ *
+ * @author Jab
+ */
+public final class NodeMatcher {
+
+  /** The wildcard character. */
+  public static final char WILDCARD = '*';
+
+  /** The score returned when no pattern matches. */
+  public static final long NO_MATCH = -1L;
+
+  /** The root state. This state represents no segment, and never ends a pattern. */
+  private final State root;
+
+  /** The amount of patterns compiled. */
+  private final int size;
+
+  /**
+   * (Private Constructor)
+   *
+   * @param root The root state.
+   * @param size The amount of patterns compiled.
+   */
+  private NodeMatcher(State root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * @param node The String node being tested. Case and surrounding white-space are ignored.
+   * @return Returns the score of the most specific pattern matching the node or a super-node of
+   *     the node, or NO_MATCH if no pattern matches.
+   */
+  public long match(String node) {
+    if (node == null) {
+      return NO_MATCH;
+    }
+    int start = NodeTrie.trimStart(node);
+    int length = NodeTrie.trimEnd(node, start);
+    return root.match(node, start, length, NO_MATCH);
+  }
+
+  /** @return Returns the amount of patterns compiled. */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Compiles a set of patterns.
+   *
+   * @param mapPatterns The flags of the patterns, identified by the String pattern.
+   * @return Returns the compiled NodeMatcher.
+   */
+  public static NodeMatcher compile(Map<String, Boolean> mapPatterns) {
+    State root = new State(null);
+    for (Map.Entry<String, Boolean> entry : mapPatterns.entrySet()) {
+      String pattern = entry.getKey();
+      State state = root;
+      int depth = 0;
+      int literalSegments = 0;
+      int literalChars = 0;
+      int start = NodeTrie.trimStart(pattern);
+      int length = NodeTrie.trimEnd(pattern, start);
+      while (true) {
+        int end = NodeTrie.nextSeparator(pattern, start, length);
+        String segment = pattern.substring(start, end);
+        state = state.getOrAddChild(segment);
+        depth++;
+        int wildcards = count(segment);
+        if (wildcards == 0) {
+          literalSegments++;
+        }
+        literalChars += segment.length() - wildcards;
+        if (end == length) {
+          break;
+        }
+        start = end + 1;
+      }
+      state.score = score(depth, literalSegments, literalChars, entry.getValue());
+    }
+    root.freeze();
+    return new NodeMatcher(root, mapPatterns.size());
+  }
+
+  /**
+   * @param node The String node to test.
+   * @return Returns true if the String node is a wildcard pattern.
+   */
+  public static boolean isPattern(String node) {
+    return node.indexOf(WILDCARD) != -1;
+  }
+
+  /**
+   * Computes the score of a definition, so definitions can be compared by specificity.
+   *
+   * @param depth The amount of segments matched.
+   * @param literalSegments The amount of segments without wildcards.
+   * @param literalChars The amount of characters that are not wildcards.
+   * @param flag The flag of the definition.
+   * @return Returns the score. A higher score is more specific.
+   */
+  public static long score(int depth, int literalSegments, int literalChars, boolean flag) {
+    return ((long) Math.min(depth, 0xFFFF) << 47)
+        | ((long) Math.min(literalSegments, 0xFFFF) << 31)
+        | ((long) Math.min(literalChars, 0x3FFFFFFF) << 1)
+        | (flag ? 0L : 1L);
+  }
+
+  /**
+   * @param score The score of a definition.
+   * @return Returns the flag of the definition.
+   */
+  public static boolean getFlag(long score) {
+    return (score & 1L) == 0L;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param segment The String segment to count.
+   * @return Returns the amount of wildcards in the segment.
+   */
+  private static int count(String segment) {
+    int count = 0;
+    for (int index = 0; index < segment.length(); index++) {
+      if (segment.charAt(index) == WILDCARD) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Matches a glob segment against a region of a String, ignoring case.
+   *
+   * @param glob The String glob segment. '*' matches any amount of characters.
+   * @param node The String containing the region.
+   * @param start The start of the region. (Inclusive)
+   * @param end The end of the region. (Exclusive)
+   * @return Returns true if the glob matches the whole region.
+   */
+  private static boolean globMatches(String glob, String node, int start, int end) {
+    int globIndex = 0;
+    int globLength = glob.length();
+    int index = start;
+    // The positions to return to when a character after the last wildcard does not match.
+    int starIndex = -1;
+    int starMatch = start;
+    while (index < end) {
+      if (globIndex < globLength && glob.charAt(globIndex) == WILDCARD) {
+        starIndex = globIndex++;
+        starMatch = index;
+      } else if (globIndex < globLength
+          && glob.regionMatches(true, globIndex, node, index, 1)) {
+        globIndex++;
+        index++;
+      } else if (starIndex != -1) {
+        // Let the last wildcard take one more character, and try again after it.
+        globIndex = starIndex + 1;
+        index = ++starMatch;
+      } else {
+        return false;
+      }
+    }
+    // Any wildcards left can match nothing.
+    while (globIndex < globLength && glob.charAt(globIndex) == WILDCARD) {
+      globIndex++;
+    }
+    return globIndex == globLength;
+  }
+
+  /** State for one pattern segment. */
+  private static class State {
+
+    /** The String pattern segment of the state. */
+    private final String segment;
+    /** The case-insensitive hash of the segment. Only used for literal segments. */
+    private final int hash;
+    /** The score of the pattern ending at this state, or NO_MATCH if no pattern ends here. */
+    private long score = NO_MATCH;
+    /** The children while the matcher is being compiled, identified by their lower-case segment. */
+    private Map<String, State> mapChildren;
+    /** The open-addressed table of literal children. Null if there are none. */
+    private State[] literals;
+    /** The child for a '*' segment, if any. */
+    private State star;
+    /** The children for glob segments with a literal prefix. Null if there are none. */
+    private GlobTable globPrefixes;
+    /** The children for glob segments with a literal suffix only. Null if there are none. */
+    private GlobTable globSuffixes;
+    /** The children for glob segments with neither, such as '*a*'. Null if there are none. */
+    private State[] globs;
+
+    /**
+     * Main constructor.
+     *
+     * @param segment The String pattern segment of the state.
+     */
+    private State(String segment) {
+      this.segment = segment;
+      this.hash = segment != null ? NodeTrie.hash(segment, 0, segment.length()) : 0;
+    }
+
+    /**
+     * @param segment The String pattern segment.
+     * @return Returns the child for the segment, adding one if none exists.
+     */
+    private State getOrAddChild(String segment) {
+      if (mapChildren == null) {
+        mapChildren = new HashMap<>();
+      }
+      String key = segment.toLowerCase(Locale.ROOT);
+      return mapChildren.computeIfAbsent(key, k -> new State(segment));
+    }
+
+    /** Splits the children of this state, and every state below it, by their kind of segment. */
+    private void freeze() {
+      if (mapChildren == null) {
+        return;
+      }
+      List<State> listLiterals = new ArrayList<>();
+      Map<String, List<State>> mapPrefixes = new HashMap<>();
+      Map<String, List<State>> mapSuffixes = new HashMap<>();
+      List<State> listGlobs = new ArrayList<>();
+      for (State child : mapChildren.values()) {
+        child.freeze();
+        String segment = child.segment;
+        if (segment.length() == 1 && segment.charAt(0) == WILDCARD) {
+          star = child;
+        } else if (isPattern(segment)) {
+          // Key the glob by the longer of its literal prefix and suffix, as it rules out more
+          // segments.
+          String key = segment.toLowerCase(Locale.ROOT);
+          int prefix = key.indexOf(WILDCARD);
+          int suffix = key.length() - key.lastIndexOf(WILDCARD) - 1;
+          if (prefix == 0 && suffix == 0) {
+            listGlobs.add(child);
+          } else if (prefix >= suffix) {
+            mapPrefixes
+                .computeIfAbsent(key.substring(0, prefix), k -> new ArrayList<>())
+                .add(child);
+          } else {
+            mapSuffixes
+                .computeIfAbsent(key.substring(key.length() - suffix), k -> new ArrayList<>())
+                .add(child);
+          }
+        } else {
+          listLiterals.add(child);
+        }
+      }
+      if (!listLiterals.isEmpty()) {
+        // Keep the table at most half full so probes stay short.
+        int capacity = 4;
+        while (listLiterals.size() * 2 > capacity) {
+          capacity *= 2;
+        }
+        literals = new State[capacity];
+        int mask = capacity - 1;
+        for (State child : listLiterals) {
+          int index = NodeTrie.spread(child.hash) & mask;
+          while (literals[index] != null) {
+            index = (index + 1) & mask;
+          }
+          literals[index] = child;
+        }
+      }
+      if (!mapPrefixes.isEmpty()) {
+        globPrefixes = new GlobTable(mapPrefixes, false);
+      }
+      if (!mapSuffixes.isEmpty()) {
+        globSuffixes = new GlobTable(mapSuffixes, true);
+      }
+      if (!listGlobs.isEmpty()) {
+        globs = listGlobs.toArray(new State[0]);
+      }
+      mapChildren = null;
+    }
+
+    /**
+     * Matches the remaining segments of a String node against the states below this state.
+     *
+     * @param node The String node being tested.
+     * @param start The start of the next segment.
+     * @param length The end of the node.
+     * @param best The score of the most specific pattern matched so far.
+     * @return Returns the score of the most specific pattern matched.
+     */
+    private long match(String node, int start, int length, long best) {
+      if (score != NO_MATCH && score > best) {
+        best = score;
+      }
+      // The whole node has been matched, or there are no more patterns past this point.
+      if (start > length
+          || (literals == null
+              && star == null
+              && globPrefixes == null
+              && globSuffixes == null
+              && globs == null)) {
+        return best;
+      }
+      int end = NodeTrie.nextSeparator(node, start, length);
+      int next = end + 1;
+      if (literals != null) {
+        State child = getLiteral(node, start, end);
+        if (child != null) {
+          best = child.match(node, next, length, best);
+        }
+      }
+      if (star != null) {
+        best = star.match(node, next, length, best);
+      }
+      if (globPrefixes != null) {
+        best = globPrefixes.match(node, start, end, length, best);
+      }
+      if (globSuffixes != null) {
+        best = globSuffixes.match(node, start, end, length, best);
+      }
+      if (globs != null) {
+        for (State child : globs) {
+          if (globMatches(child.segment, node, start, end)) {
+            best = child.match(node, next, length, best);
+          }
+        }
+      }
+      return best;
+    }
+
+    /**
+     * @param node The String containing the segment.
+     * @param start The start of the segment. (Inclusive)
+     * @param end The end of the segment. (Exclusive)
+     * @return Returns the literal child for the segment, or null if none exists.
+     */
+    private State getLiteral(String node, int start, int end) {
+      State[] literals = this.literals;
+      int segmentLength = end - start;
+      int hash = NodeTrie.hash(node, start, end);
+      int mask = literals.length - 1;
+      int index = NodeTrie.spread(hash) & mask;
+      State child;
+      while ((child = literals[index]) != null) {
+        if (child.hash == hash
+            && child.segment.length() == segmentLength
+            && child.segment.regionMatches(true, 0, node, start, segmentLength)) {
+          return child;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Open-addressed table of glob children, keyed by the literal prefix or suffix of their segment.
+   * A segment is looked up once for each distinct key length, so only the globs sharing its prefix
+   * or suffix are tested.
+   */
+  private static class GlobTable {
+
+    /** True if the globs are keyed by their suffix, false if by their prefix. */
+    private final boolean suffix;
+    /** The distinct lengths of the keys, in ascending order. */
+    private final int[] lengths;
+    /** The lower-case keys, stored at the same index as their globs. */
+    private final String[] keys;
+    /** The case-insensitive hashes of the keys. */
+    private final int[] hashes;
+    /** The glob children for each key. */
+    private final State[][] states;
+
+    /**
+     * Main constructor.
+     *
+     * @param mapGlobs The glob children, identified by their lower-case key.
+     * @param suffix True if the globs are keyed by their suffix, false if by their prefix.
+     */
+    private GlobTable(Map<String, List<State>> mapGlobs, boolean suffix) {
+      this.suffix = suffix;
+      TreeSet<Integer> setLengths = new TreeSet<>();
+      // Keep the table at most half full so probes stay short.
+      int capacity = 4;
+      while (mapGlobs.size() * 2 > capacity) {
+        capacity *= 2;
+      }
+      keys = new String[capacity];
+      hashes = new int[capacity];
+      states = new State[capacity][];
+      int mask = capacity - 1;
+      for (Map.Entry<String, List<State>> entry : mapGlobs.entrySet()) {
+        String key = entry.getKey();
+        int hash = NodeTrie.hash(key, 0, key.length());
+        int index = NodeTrie.spread(hash) & mask;
+        while (keys[index] != null) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        hashes[index] = hash;
+        states[index] = entry.getValue().toArray(new State[0]);
+        setLengths.add(key.length());
+      }
+      lengths = new int[setLengths.size()];
+      int index = 0;
+      for (int length : setLengths) {
+        lengths[index++] = length;
+      }
+    }
+
+    /**
+     * Matches a segment against the globs sharing its prefix or suffix, and the remaining segments
+     * of the node against the states below them.
+     *
+     * @param node The String node being tested.
+     * @param start The start of the segment. (Inclusive)
+     * @param end The end of the segment. (Exclusive)
+     * @param length The end of the node.
+     * @param best The score of the most specific pattern matched so far.
+     * @return Returns the score of the most specific pattern matched.
+     */
+    private long match(String node, int start, int end, int length, long best) {
+      int mask = keys.length - 1;
+      for (int keyLength : lengths) {
+        if (keyLength > end - start) {
+          break;
+        }
+        int keyStart = suffix ? end - keyLength : start;
+        int hash = NodeTrie.hash(node, keyStart, keyStart + keyLength);
+        int index = NodeTrie.spread(hash) & mask;
+        String key;
+        while ((key = keys[index]) != null) {
+          if (hashes[index] == hash
+              && key.length() == keyLength
+              && key.regionMatches(true, 0, node, keyStart, keyLength)) {
+            for (State child : states[index]) {
+              if (globMatches(child.segment, node, start, end)) {
+                best = child.match(node, end + 1, length, best);
+              }
+            }
+            break;
+          }
+          index = (index + 1) & mask;
+        }
+      }
+      return best;
+    }
+  }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.object;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Trie that stores values by their String node, split into dot-separated segments.
+ *
+ * <p>Exact, closest-ancestor, and sub-node queries walk one entry per segment of the node being
+ * tested, so the cost of a query depends on the depth of the node and not on the amount of nodes
+ * stored. Segments are compared in place against the node being tested, so walking the trie does
+ * not create sub-strings.
+ *
+ * <p>(Note: Nodes are matched ignoring case and surrounding white-space, without creating any
+ * Strings. Callers do not need to format nodes before using the trie)
+ *
+ * @param <V> The type of value stored for each node.
+ * @author Jab
+ */
+public class NodeTrie<V> {
+
+  /** The separator between segments of a node. */
+  public static final char SEPARATOR = '.';
+
+  /** The root entry. This entry represents no segment, and never holds a value. */
+  private final Entry<V> root = new Entry<>(null, 0);
+
+  /** The amount of values stored in the trie. */
+  private int size;
+
+  /**
+   * Stores a value for the given String node, replacing any value previously stored for it.
+   *
+   * @param node The String node to store the value for.
+   * @param value The value to store.
+   * @return Returns the previous value stored for the node, or null if there was none.
+   */
+  public V put(String node, V value) {
+    // Validate the arguments.
+    if (node == null) {
+      throw new IllegalArgumentException("Node given is null.");
+    }
+    if (value == null) {
+      throw new IllegalArgumentException("Value given is null.");
+    }
+    // Walk the trie, creating entries for segments that do not exist yet.
+    Entry<V> entry = root;
+    int start = trimStart(node);
+    int length = trimEnd(node, start);
+    while (true) {
+      int end = nextSeparator(node, start, length);
+      Entry<V> child = entry.getChild(node, start, end);
+      if (child == null) {
+        child = entry.addChild(node.substring(start, end));
+      }
+      entry = child;
+      if (end == length) {
+        break;
+      }
+      start = end + 1;
+    }
+    V returned = entry.value;
+    entry.value = value;
+    // If this is a new value, count it for the entry and every entry above it.
+    if (returned == null) {
+      size++;
+      adjustSubCount(node, 1);
+    }
+    return returned;
+  }
+
+  /**
+   * Removes the value stored for the given String node, if one exists.
+   *
+   * @param node The String node to remove.
+   * @return Returns the value that was removed, or null if no value was stored for the node.
+   */
+  public V remove(String node) {
+    Entry<V> entry = getEntry(node);
+    // If no value is stored, there's nothing to remove.
+    if (entry == null || entry.value == null) {
+      return null;
+    }
+    V returned = entry.value;
+    entry.value = null;
+    size--;
+    adjustSubCount(node, -1);
+    prune(node);
+    return returned;
+  }
+
+  /**
+   * @param node The String node to get.
+   * @return Returns the value explicitly stored for the String node, or null if none is stored.
+   */
+  public V get(String node) {
+    Entry<V> entry = getEntry(node);
+    return entry != null ? entry.value : null;
+  }
+
+  /**
+   * @param node The String node to test.
+   * @return Returns true if a value is explicitly stored for the String node.
+   */
+  public boolean contains(String node) {
+    return get(node) != null;
+  }
+
+  /**
+   * Grabs the most specific value defined for the given String node. This is either the value
+   * stored for the node itself, or the value stored for the deepest super-node of the node.
+   *
+   * <p>Example: If "bukkit" and "bukkit.command" are stored, testing "bukkit.command.help" will
+   * return the value for "bukkit.command".
+   *
+   * @param node The String node being tested.
+   * @return Returns the closest value defined for the String node, or null if none is defined.
+   */
+  public V getClosest(String node) {
+    if (node == null) {
+      return null;
+    }
+    V returned = null;
+    Entry<V> entry = root;
+    int start = trimStart(node);
+    int length = trimEnd(node, start);
+    while (true) {
+      int end = nextSeparator(node, start, length);
+      entry = entry.getChild(node, start, end);
+      // There are no more specific definitions past this point.
+      if (entry == null) {
+        break;
+      }
+      // Store the most specific value found so far.
+      if (entry.value != null) {
+        returned = entry.value;
+      }
+      if (end == length) {
+        break;
+      }
+      start = end + 1;
+    }
+    return returned;
+  }
+
+  /**
+   * @param node The String super-node being tested.
+   * @return Returns a List of the values stored for sub-nodes of the String node. The value stored
+   *     for the node itself is not included.
+   */
+  public List<V> getSubValues(String node) {
+    List<V> listValues = new ArrayList<>();
+    Entry<V> entry = getEntry(node);
+    if (entry != null && entry.subCount > 0) {
+      entry.collectChildren(listValues);
+    }
+    return listValues;
+  }
+
+  /**
+   * @param node The String super-node being tested.
+   * @return Returns true if any value is stored for a sub-node of the String node.
+   */
+  public boolean hasSubValues(String node) {
+    Entry<V> entry = getEntry(node);
+    return entry != null && entry.subCount > 0;
+  }
+
+  /** @return Returns a Collection of every value stored in the trie. */
+  public Collection<V> values() {
+    List<V> listValues = new ArrayList<>(size);
+    root.collectChildren(listValues);
+    return listValues;
+  }
+
+  /** Removes every value stored in the trie. */
+  public void clear() {
+    root.clearChildren();
+    root.subCount = 0;
+    size = 0;
+  }
+
+  /** @return Returns the amount of values stored in the trie. */
+  public int size() {
+    return this.size;
+  }
+
+  /** @return Returns true if no values are stored in the trie. */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param node The String node to walk.
+   * @return Returns the entry for the String node, or null if the trie has no entry for it.
+   */
+  private Entry<V> getEntry(String node) {
+    if (node == null) {
+      return null;
+    }
+    Entry<V> entry = root;
+    int start = trimStart(node);
+    int length = trimEnd(node, start);
+    while (true) {
+      int end = nextSeparator(node, start, length);
+      entry = entry.getChild(node, start, end);
+      if (entry == null || end == length) {
+        return entry;
+      }
+      start = end + 1;
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Adjusts the sub-node count for every entry above the given String node.
+   *
+   * @param node The String node that gained or lost a value.
+   * @param amount The amount to adjust by.
+   */
+  private void adjustSubCount(String node, int amount) {
+    Entry<V> entry = root;
+    int start = trimStart(node);
+    int length = trimEnd(node, start);
+    while (entry != null) {
+      entry.subCount += amount;
+      int end = nextSeparator(node, start, length);
+      entry = entry.getChild(node, start, end);
+      if (end == length) {
+        break;
+      }
+      start = end + 1;
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Removes entries along the path of the given String node that no longer store a value, or
+   * lead to one.
+   *
+   * @param node The String node that lost a value.
+   */
+  private void prune(String node) {
+    Entry<V> entry = root;
+    int start = trimStart(node);
+    int length = trimEnd(node, start);
+    while (entry != null) {
+      int end = nextSeparator(node, start, length);
+      Entry<V> child = entry.getChild(node, start, end);
+      // Every entry below an unused entry is also unused, so removing it is enough.
+      if (child != null && child.value == null && child.subCount == 0) {
+        entry.removeChild(child);
+        return;
+      }
+      if (end == length) {
+        return;
+      }
+      entry = child;
+      start = end + 1;
+    }
+  }
+
+  /**
+   * (Package-Private Method)
+   *
+   * @param node The String node to search.
+   * @param start The index to start searching from.
+   * @param end The index to stop searching at. (Exclusive)
+   * @return Returns the index of the next separator, or the end if there is no more separators.
+   */
+  static int nextSeparator(String node, int start, int end) {
+    int index = node.indexOf(SEPARATOR, start);
+    return index != -1 && index < end ? index : end;
+  }
+
+  /**
+   * (Package-Private Method)
+   *
+   * @param node The String node.
+   * @return Returns the index of the first character of the node that is not white-space.
+   */
+  static int trimStart(String node) {
+    int length = node.length();
+    int start = 0;
+    while (start < length && node.charAt(start) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /**
+   * (Package-Private Method)
+   *
+   * @param node The String node.
+   * @param start The index of the first character of the node that is not white-space.
+   * @return Returns the index after the last character of the node that is not white-space.
+   */
+  static int trimEnd(String node, int start) {
+    int end = node.length();
+    while (end > start && node.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * (Package-Private Method)
+   *
+   * <p>Computes the case-insensitive hash of a region of a String, so segments can be looked up
+   * without creating a sub-string or a lower-case copy. Characters that 'regionMatches' treats as
+   * equal when ignoring case always hash the same.
+   *
+   * @param node The String containing the region.
+   * @param start The start of the region. (Inclusive)
+   * @param end The end of the region. (Exclusive)
+   * @return Returns the hash of the region.
+   */
+  static int hash(String node, int start, int end) {
+    int hash = 0;
+    for (int index = start; index < end; index++) {
+      hash = 31 * hash + fold(node.charAt(index));
+    }
+    return hash;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param c The character to fold.
+   * @return Returns the case-folded form of the character.
+   */
+  private static char fold(char c) {
+    // Most nodes are ASCII. Skip the Unicode tables for them.
+    if (c < 128) {
+      return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * (Package-Private Method)
+   *
+   * @param hash The hash to spread.
+   * @return Returns the hash with the high bits mixed into the low bits.
+   */
+  static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Entry for a single segment in the trie. Children are stored in an open-addressed table keyed
+   * by the hash of their segment.
+   *
+   * @param <V> The type of value stored.
+   */
+  private static class Entry<V> {
+
+    /** The initial capacity of the child table. Must be a power of two. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The String segment of the entry. */
+    private final String segment;
+    /** The hash of the segment. */
+    private final int hash;
+    /** The value stored for the entry, if any. */
+    private V value;
+    /** The amount of values stored in entries below this entry. */
+    private int subCount;
+    /** The table of child entries. Null until the first child is added. */
+    private Entry<V>[] children;
+    /** The amount of child entries. */
+    private int childCount;
+
+    /**
+     * Main constructor.
+     *
+     * @param segment The String segment of the entry.
+     * @param hash The hash of the segment.
+     */
+    private Entry(String segment, int hash) {
+      this.segment = segment;
+      this.hash = hash;
+    }
+
+    /**
+     * @param node The String containing the segment.
+     * @param start The start of the segment. (Inclusive)
+     * @param end The end of the segment. (Exclusive)
+     * @return Returns the child entry for the segment, or null if none exists.
+     */
+    private Entry<V> getChild(String node, int start, int end) {
+      Entry<V>[] children = this.children;
+      if (children == null) {
+        return null;
+      }
+      int length = end - start;
+      int hash = hash(node, start, end);
+      int mask = children.length - 1;
+      int index = spread(hash) & mask;
+      Entry<V> child;
+      while ((child = children[index]) != null) {
+        if (child.hash == hash
+            && child.segment.length() == length
+            && child.segment.regionMatches(true, 0, node, start, length)) {
+          return child;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    /**
+     * Adds a child entry for the given String segment. The segment must not already exist.
+     *
+     * @param segment The String segment to add.
+     * @return Returns the created child entry.
+     */
+    private Entry<V> addChild(String segment) {
+      if (children == null) {
+        children = newTable(INITIAL_CAPACITY);
+      } else if ((childCount + 1) * 2 > children.length) {
+        // Keep the table at most half full so probes stay short.
+        Entry<V>[] table = newTable(children.length * 2);
+        for (Entry<V> child : children) {
+          if (child != null) {
+            insert(table, child);
+          }
+        }
+        children = table;
+      }
+      Entry<V> child = new Entry<>(segment, hash(segment, 0, segment.length()));
+      insert(children, child);
+      childCount++;
+      return child;
+    }
+
+    /**
+     * Removes a child entry. The table is rebuilt without the child so that probe chains stay
+     * intact.
+     *
+     * @param child The child entry to remove.
+     */
+    private void removeChild(Entry<V> child) {
+      if (childCount == 1) {
+        children = null;
+        childCount = 0;
+        return;
+      }
+      Entry<V>[] table = newTable(children.length);
+      for (Entry<V> next : children) {
+        if (next != null && next != child) {
+          insert(table, next);
+        }
+      }
+      children = table;
+      childCount--;
+    }
+
+    /** Removes every child entry. */
+    private void clearChildren() {
+      children = null;
+      childCount = 0;
+    }
+
+    /**
+     * Adds the values of every entry below this entry to the given List.
+     *
+     * @param listValues The List to add to.
+     */
+    private void collectChildren(List<V> listValues) {
+      if (children == null) {
+        return;
+      }
+      for (Entry<V> child : children) {
+        if (child != null) {
+          if (child.value != null) {
+            listValues.add(child.value);
+          }
+          if (child.subCount > 0) {
+            child.collectChildren(listValues);
+          }
+        }
+      }
+    }
+
+    /**
+     * @param table The table to insert into.
+     * @param child The child entry to insert.
+     */
+    private static <V> void insert(Entry<V>[] table, Entry<V> child) {
+      int mask = table.length - 1;
+      int index = spread(child.hash) & mask;
+      while (table[index] != null) {
+        index = (index + 1) & mask;
+      }
+      table[index] = child;
+    }
+
+    /**
+     * @param capacity The capacity of the table.
+     * @return Returns a new empty table.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> Entry<V>[] newTable(int capacity) {
+      return (Entry<V>[]) new Entry[capacity];
+    }
+  }
+}
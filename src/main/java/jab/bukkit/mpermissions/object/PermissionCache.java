@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.object;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small, bounded cache of the most recent permission results for one PermissionUser.
+ *
+ * <p>The cache is direct-mapped: each String node has one slot, picked from its hash, and a newer
+ * result replaces whatever was in the slot. Each result is stamped with the version of the user it
+ * was resolved for. Any change to the user, its PermissionGroup, or any parent of the group moves
+ * the version of the user on, so every result cached before the change is ignored without the
+ * cache having to be cleared.
+ *
+ * <p>Slots hold immutable entries, so the cache can be read and written from any thread without
+ * locking. A lost write only costs a later miss.
+ *
+ * @author Jab
+ */
+public class PermissionCache {
+
+  /** The default amount of slots for each cache. */
+  public static final int DEFAULT_SIZE = 64;
+
+  /** The amount of slots for caches created from now on. */
+  private static volatile int defaultSize = DEFAULT_SIZE;
+
+  /** The amount of lookups answered from a cache, across every cache. */
+  private static final LongAdder HITS = new LongAdder();
+  /** The amount of lookups not answered from a cache, across every cache. */
+  private static final LongAdder MISSES = new LongAdder();
+  /** The amount of flags resolved without a cache, because caching is disabled. */
+  private static final LongAdder UNCACHED = new LongAdder();
+
+  /** The table of slots. Null if caching is disabled. */
+  private final Entry[] slots;
+
+  /** Creates a cache with the current default size. */
+  public PermissionCache() {
+    this(defaultSize);
+  }
+
+  /**
+   * Main constructor.
+   *
+   * @param size The amount of slots. This is rounded up to a power of two. 0 disables the cache.
+   */
+  public PermissionCache(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Cache size cannot be negative.");
+    }
+    this.slots = size > 0 ? new Entry[tableSize(size)] : null;
+  }
+
+  /**
+   * Grabs the flag for a String node, resolving and caching it on a miss.
+   *
+   * @param node The String node being tested.
+   * @param user The PermissionUser the cache belongs to.
+   * @return Returns the flag of the most specific definition for the String node, or null if none
+   *     is defined or the node is null.
+   */
+  public Boolean getFlag(String node, PermissionUser user) {
+    // Like NodeDictionary.getId(String), a null node is simply not defined.
+    if (node == null) {
+      return null;
+    }
+    Entry[] slots = this.slots;
+    if (slots == null) {
+      UNCACHED.increment();
+      return user.getSnapshot().getFlag(node);
+    }
+    // Grab the version before resolving. If the user changes while resolving, the entry is stamped
+    // with the older version and is simply never hit.
+    long version = user.getVersion();
+    int index = spread(node.hashCode()) & (slots.length - 1);
+    Entry entry = slots[index];
+    if (entry != null
+        && entry.version == version
+        && (entry.node == node || entry.node.equals(node))) {
+      HITS.increment();
+      return entry.flag;
+    }
+    MISSES.increment();
+    Boolean flag = user.getSnapshot().getFlag(node);
+    slots[index] = new Entry(node, version, flag);
+    return flag;
+  }
+
+  /** @return Returns the amount of slots in the cache. */
+  public int size() {
+    return slots != null ? slots.length : 0;
+  }
+
+  /** @return Returns the amount of lookups answered from a cache, across every cache. */
+  public static long getHits() {
+    return HITS.sum();
+  }
+
+  /** @return Returns the amount of lookups not answered from a cache, across every cache. */
+  public static long getMisses() {
+    return MISSES.sum();
+  }
+
+  /** @return Returns the amount of flags looked up, whether or not caching is enabled. */
+  public static long getChecks() {
+    return HITS.sum() + MISSES.sum() + UNCACHED.sum();
+  }
+
+  /** @return Returns the share of lookups answered from a cache, from 0 to 1. */
+  public static double getHitRate() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /** @return Returns the amount of slots for caches created from now on. */
+  public static int getDefaultSize() {
+    return defaultSize;
+  }
+
+  /**
+   * Sets the amount of slots for caches created from now on. Existing caches keep their size.
+   *
+   * @param size The amount of slots. This is rounded up to a power of two. 0 disables caching.
+   */
+  public static void setDefaultSize(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Cache size cannot be negative.");
+    }
+    defaultSize = size;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param size The requested amount of slots.
+   * @return Returns the smallest power of two that is at least the requested amount.
+   */
+  private static int tableSize(int size) {
+    int tableSize = 1;
+    while (tableSize < size && tableSize < (1 << 30)) {
+      tableSize <<= 1;
+    }
+    return tableSize;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param hash The hash to spread.
+   * @return Returns the hash with the high bits mixed into the low bits.
+   */
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /** Immutable cached result for one String node. */
+  private static class Entry {
+
+    /** The String node tested. */
+    private final String node;
+    /** The version of the PermissionUser the result was resolved for. */
+    private final long version;
+    /** The resolved flag, or null if the node is not defined. */
+    private final Boolean flag;
+
+    /**
+     * Main constructor.
+     *
+     * @param node The String node tested.
+     * @param version The version of the PermissionUser the result was resolved for.
+     * @param flag The resolved flag, or null if the node is not defined.
+     */
+    private Entry(String node, long version, Boolean flag) {
+      this.node = node;
+      this.version = version;
+      this.flag = flag;
+    }
+  }
+}
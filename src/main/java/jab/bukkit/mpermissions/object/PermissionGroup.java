@@ -17,26 +17,43 @@
 package jab.bukkit.mpermissions.object;
 
 import jab.bukkit.mpermissions.mongo.MongoPermissionGroup;
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.metrics.jfr.PermissionCheckEvent;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * PermissionObject designed to handle permission-group data and operations for the Permissions
  * Module.
  *
+ * <p>Members and children are changed on the main thread as players log in and out, while changes
+ * to the group are passed on to them from any thread. Members are kept in a concurrent set, and
+ * children, which rarely change, in a copy-on-write List, so both can be walked while they change.
+ *
  * @author Jab
  */
 public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
 
-  /** The List of PermissionUser members assigned to the group. */
-  private List<PermissionUser> listPermissionUsers;
+  /** The PermissionUser members assigned to the group. */
+  private Set<PermissionUser> setPermissionUsers;
   /** The PermissionGroup parent that the group inherits permissions from. */
   private PermissionGroup parent;
 
   private PermissionGroup parentTemporary;
 
+  /** The List of PermissionGroups that resolve this group as their parent. */
+  private CopyOnWriteArrayList<PermissionGroup> listChildren;
+
+  /**
+   * The compiled effective permissions for the group. Null until the first permission is tested.
+   */
+  private volatile PermissionSnapshot snapshot;
+
   /**
    * Load constructor.
    *
@@ -45,73 +62,42 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
   public PermissionGroup(MongoPermissionGroup mongoDocument) {
     super(mongoDocument, "PermissionGroup");
     loadNodes(mongoDocument);
-    listPermissionUsers = new ArrayList<>();
+    setPermissionUsers = ConcurrentHashMap.newKeySet();
+    listChildren = new CopyOnWriteArrayList<>();
   }
 
   @Override
   public boolean hasPermission(String node) {
-    // The flag to return. (If no Nodes are defined from the parent and the group,
-    // the permission is denied)
-    boolean returned = false;
-    // The node to get from the parent, if the group has a parent.
-    Node parentNodeSpecific = null;
-    // The node to get directly from the group, if the node is defined.
-    Node nodeSpecific;
-    // If the group has a parent, grab this one first.
-    if (hasParent()) {
-      // Grab the most specific node that exists from the parent.
-      parentNodeSpecific = getParent().getPermissionNode(node);
-      // If the parent has a node that implicitly defines the node being tested, or
-      // contains an explicit definition, use this first.
-      if (parentNodeSpecific != null) {
-        // Set the value to the flag defined by the node.
-        returned = parentNodeSpecific.getFlag();
-      }
+    // The snapshot matches nodes ignoring case, so the node does not need formatting.
+    //
+    // The snapshot already resolves the group's definitions over its parents' definitions, with
+    // the most specific node taking authority.
+    //
+    // A sample of the checks are timed as JFR events, when JFR is available.
+    if (!FlightRecorderSupport.samplePermissionCheck()) {
+      return getSnapshot().hasPermission(node);
     }
-    // Next, grab the definition for the group.
-    nodeSpecific = getPermissionNode(node);
-    if (nodeSpecific != null) {
-      // If the parent also defines this permission.
-      if (parentNodeSpecific != null) {
-        // If both the group node and the parent node are the same, then use the group
-        // as this is a more explicit definition to override the group definition.
-        // | OR |
-        // If the group node is a super-node of the group node, this means that the node
-        // for the group overrides the super-node, and also uses the group definition.
-        if (parentNodeSpecific.equals(nodeSpecific)
-            || parentNodeSpecific.isSuperNode(nodeSpecific)) {
-          // Set the group flag as the returned variable.
-          returned = nodeSpecific.getFlag();
-        }
-        // The group node will only be subjected to the parents definition at this point
-        // because the group node is a super-node to the parent, which is more
-        // explicitly defined.
-        else {
-          returned = parentNodeSpecific.getFlag();
-        }
-      }
-      // If the parent does not define it, but the group defines it.
-      else {
-        // Assign the value directly.
-        returned = nodeSpecific.getFlag();
-      }
-    } else {
-      List<Node> listAllPermissionNodes = getAllPermissionNodes();
-      if (listAllPermissionNodes.size() > 0) {
-        Node superNode = null;
-        for (Node permissionNodeNext : listAllPermissionNodes) {
-          if (permissionNodeNext.isSubNode(node)) {
-            if (superNode == null || superNode.isSubNode(permissionNodeNext)) {
-              superNode = permissionNodeNext;
-            }
-          }
-        }
-        if (superNode != null) {
-          returned = superNode.getFlag();
-        }
-      }
+    PermissionCheckEvent event = new PermissionCheckEvent();
+    event.begin();
+    Boolean flag = getSnapshot().getFlag(node);
+    event.record("PermissionGroup", getUniqueId(), node, flag);
+    return flag == Boolean.TRUE;
+  }
+
+  /**
+   * @return Returns the compiled effective permissions for the group and its parents. The
+   *     snapshot is compiled again only after its inputs have changed.
+   */
+  public PermissionSnapshot getSnapshot() {
+    PermissionSnapshot returned = this.snapshot;
+    // If the group, or any parent of the group, has changed since the snapshot was compiled, the
+    // version of the group has moved on. Compile it again.
+    if (returned == null || returned.getVersion() != getVersion()) {
+      // Any thread testing a permission may compile. The Nodes are copied under the lock of each
+      // object, and the volatile field publishes the result.
+      returned = PermissionSnapshot.compile(this);
+      this.snapshot = returned;
     }
-    // Return the result.
     return returned;
   }
 
@@ -153,8 +139,6 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
 
   @Override
   public List<Node> getAllSubPermissionNodes(String superNodeAsString) {
-    // Format the node argument.
-    superNodeAsString = superNodeAsString.trim();
     // The List to return.
     List<Node> listNodes = new ArrayList<>();
     PermissionGroup parent = getParent();
@@ -163,26 +147,34 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
       // Add all of the nodes form the parent's execution of this method.
       listNodes.addAll(parent.getAllSubPermissionNodes(superNodeAsString));
     }
-    // Go through group all group nodes.
-    for (Node nodeNext : getPermissionNodes()) {
-      // If the next node is a sub-node
-      if (nodeNext.isSubNode(superNodeAsString)) {
-        // If the current list (from the parent), already contains the sub-node
-        //
-        // (Note: Refer to collections using the method 'equals(Object other)' to
-        // understand how collections identifies keys, and items in collections)
-        if (listNodes.contains(nodeNext)) {
-          // Remove the old Object from the list.
-          listNodes.remove(nodeNext);
-          // Put in the overriding sub-node.
-          listNodes.add(nodeNext);
-        }
-      }
+    // Go through the sub-nodes defined by the group.
+    for (Node nodeNext : getSubPermissions(superNodeAsString)) {
+      // If the current list (from the parent) already defines the sub-node, remove the
+      // parent's definition so the group's definition overrides it.
+      listNodes.removeIf(nodeParent -> nodeParent.getNode().equals(nodeNext.getNode()));
+      // Put in the overriding sub-node.
+      listNodes.add(nodeNext);
     }
     // Return the result List.
     return listNodes;
   }
 
+  @Override
+  protected void onInvalidate(long version) {
+    // This is called while loading Nodes in the constructor, before any children or members are
+    // assigned.
+    if (listChildren == null || setPermissionUsers == null) {
+      return;
+    }
+    // Only the groups inheriting from this group, and their members, are affected.
+    for (PermissionGroup child : listChildren) {
+      child.invalidate(version);
+    }
+    for (PermissionUser member : setPermissionUsers) {
+      member.invalidate(version);
+    }
+  }
+
   @Override
   public boolean equals(Object other) {
     return other instanceof PermissionGroup
@@ -205,7 +197,7 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
    * @return Returns true if the PermissionUser given is in the PermissionGroup.
    */
   public boolean hasMember(PermissionUser member) {
-    return listPermissionUsers.contains(member);
+    return setPermissionUsers.contains(member);
   }
 
   /**
@@ -215,9 +207,7 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
    * @param save The flag to save the Document.
    */
   public void addMember(PermissionUser permissionUser, boolean save) {
-    if (!hasMember(permissionUser)) {
-      listPermissionUsers.add(permissionUser);
-    }
+    linkMember(permissionUser);
     permissionUser.setPermissionGroup(this, save);
   }
 
@@ -228,12 +218,31 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
    * @param save The flag to save the Document.
    */
   public void removeMember(PermissionUser permissionUser, boolean save) {
-    if (hasMember(permissionUser)) {
-      listPermissionUsers.remove(permissionUser);
-    }
+    unlinkMember(permissionUser);
     permissionUser.setPermissionGroup(null, save);
   }
 
+  /**
+   * (Package-Private Method)
+   *
+   * <p>Adds a PermissionUser to the member list without assigning the group to the user.
+   *
+   * @param permissionUser The PermissionUser to add.
+   */
+  void linkMember(PermissionUser permissionUser) {
+    setPermissionUsers.add(permissionUser);
+  }
+
+  /**
+   * Removes a PermissionUser from the member list without assigning the group to the user. This is
+   * used when a user is unloaded.
+   *
+   * @param permissionUser The PermissionUser to remove.
+   */
+  public void unlinkMember(PermissionUser permissionUser) {
+    setPermissionUsers.remove(permissionUser);
+  }
+
   /** @return Returns the parent PermissionGroup, if one is assigned. */
   public PermissionGroup getParent() {
     return this.parent != null ? this.parent : this.parentTemporary;
@@ -246,9 +255,29 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
    * @param save The flag to save the Document.
    */
   public void setParent(PermissionGroup group, boolean save) {
+    PermissionGroup parentPrevious = getParent();
     this.parent = group;
+    relink(parentPrevious);
     UUID parentId = group != null ? group.getUniqueId() : null;
     getMongoDocument().setParentId(parentId, save);
+    invalidate();
+  }
+
+  /**
+   * Assigns the parent PermissionGroup resolved while loading. Nothing is saved or invalidated,
+   * and the parent's child list is not searched first.
+   *
+   * <p>(Note: Only use this for a PermissionGroup that was just loaded, and has no parent yet)
+   *
+   * @param group The PermissionGroup to assign as the parent.
+   */
+  public void loadParent(PermissionGroup group) {
+    if (getParent() != null) {
+      throw new IllegalStateException(
+          "PermissionGroup already has a parent: \"" + getGroupName() + "\".");
+    }
+    this.parent = group;
+    group.listChildren.add(this);
   }
 
   /**
@@ -257,7 +286,38 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
    * @param group The PermissionGroup to assign as the parent.
    */
   public void setTemporaryParent(PermissionGroup group) {
+    PermissionGroup parentPrevious = getParent();
     this.parentTemporary = group;
+    relink(parentPrevious);
+    invalidate();
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Moves the PermissionGroup from the child list of the previous parent to the child list of
+   * the current parent, so that changes to the parent reach this group.
+   *
+   * @param parentPrevious The parent PermissionGroup resolved before the change.
+   */
+  private void relink(PermissionGroup parentPrevious) {
+    PermissionGroup parent = getParent();
+    if (parentPrevious == parent) {
+      return;
+    }
+    if (parentPrevious != null) {
+      parentPrevious.listChildren.remove(this);
+    }
+    if (parent != null) {
+      parent.listChildren.addIfAbsent(this);
+    }
+  }
+
+  /**
+   * @return Returns a List of PermissionGroups that resolve this PermissionGroup as their parent.
+   */
+  public List<PermissionGroup> getChildren() {
+    return this.listChildren;
   }
 
   /** @return Returns true if the PermissionGroup has a parent PermissionGroup. */
@@ -266,10 +326,11 @@ public class PermissionGroup extends PermissionObject<MongoPermissionGroup> {
   }
 
   /**
-   * @return Returns a List of PermissionUsers of Players who are assigned to the PermissionGroup.
+   * @return Returns a copy of the List of PermissionUsers of Players who are assigned to the
+   *     PermissionGroup.
    */
   public List<PermissionUser> getMembers() {
-    return this.listPermissionUsers;
+    return new ArrayList<>(this.setPermissionUsers);
   }
 
   /** @return The UUID identifier for the group. */
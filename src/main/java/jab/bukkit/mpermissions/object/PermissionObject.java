@@ -21,6 +21,7 @@ import jab.mongo.document.MongoNode;
 import jab.mongo.document.MongoUniqueNodeDocument;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MongoLuaObject to handle general permission-object data and operations for the Permissions
@@ -31,8 +32,21 @@ import java.util.*;
 public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
     extends MongoObject<M> {
 
-  /** The Map containing the context permissions. */
-  private Map<String, Node> mapPermissionNodes = new HashMap<>();
+  /** The source of versions shared by every PermissionObject. */
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  /**
+   * The NodeTrie containing the context permissions, identified by the String node format. The
+   * NodeTrie is not thread-safe, so it is only read, changed, or copied while synchronized on the
+   * object. Snapshots are compiled from the copy, on whatever thread tests a permission.
+   */
+  private NodeTrie<Node> triePermissionNodes = new NodeTrie<>();
+
+  /**
+   * The version of the PermissionObject. This increases every time the Nodes of the object, or
+   * anything it inherits from, changes.
+   */
+  private volatile long version = VERSIONS.incrementAndGet();
 
   /**
    * Main constructor.
@@ -85,6 +99,7 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
     } else {
       if (flag != null) {
         returned.setFlag(flag, save);
+        invalidate();
       } else {
         removeNode(returned, save);
       }
@@ -125,20 +140,11 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
     if (node == null || node.isEmpty()) {
       throw new IllegalArgumentException("Node given is null or empty.");
     }
-    // Process the node entry.
-    node = node.toLowerCase().trim();
-    // The List to return.
-    List<Node> listPermissionNodes = new ArrayList<>();
-    // Go through each assigned permission.
-    for (Node permissionNodeNext : getPermissionNodes()) {
-      // Check to see if this is a sub-node of the given node to test.
-      if (permissionNodeNext.isSubNode(node)) {
-        // If so, then add to the list to return.
-        listPermissionNodes.add(permissionNodeNext);
-      }
+    // Grab every Node stored below the given node in the trie. The trie ignores case, so the
+    // node does not need formatting.
+    synchronized (this) {
+      return this.triePermissionNodes.getSubValues(node);
     }
-    // Return the list with any contents added.
-    return listPermissionNodes;
   }
 
   /**
@@ -154,21 +160,10 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
     if (node == null || node.isEmpty()) {
       throw new IllegalArgumentException("Node given is null or empty.");
     }
-    // Process the node entry.
-    node = node.toLowerCase().trim();
-    // The result to return.
-    boolean returned = false;
-    // Go through each assigned permission.
-    for (Node permissionNodeNext : getPermissionNodes()) {
-      // Check to see if this is a sub-node of the given node to test.
-      if (permissionNodeNext.isSubNode(node)) {
-        // If so, we have one result which is enough. Set the flag and break the loop.
-        returned = true;
-        break;
-      }
+    // The trie keeps count of the Nodes stored below each node, so one walk is enough.
+    synchronized (this) {
+      return this.triePermissionNodes.hasSubValues(node);
     }
-    // Return the result.
-    return returned;
   }
 
   /**
@@ -197,20 +192,10 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
    * @return Returns a List of Nodes that are sub-nodes of the String super-node given.
    */
   public List<Node> getAllSubPermissionNodes(String superNodeAsString) {
-    // The List to return.
-    List<Node> listSubNodes = new ArrayList<>();
-    // Format the node argument.
-    superNodeAsString = superNodeAsString.toLowerCase().trim();
-    // Go through each Node in the PermissionObject.
-    for (Node permissionNodeNext : getPermissionNodes()) {
-      // If the next node is a sub-node of the given String node.
-      if (permissionNodeNext.isSubNode(superNodeAsString)) {
-        // Add the sub-node to the list.
-        listSubNodes.add(permissionNodeNext);
-      }
+    // Grab every Node stored below the given node in the trie.
+    synchronized (this) {
+      return this.triePermissionNodes.getSubValues(superNodeAsString);
     }
-    // Return the result List.
-    return listSubNodes;
   }
 
   /**
@@ -222,38 +207,11 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
    * @return Returns the closest PermissionNode if one is found.
    */
   public Node getClosestPermissionNode(String node) {
-    // Our assigned variable for any super-node discovered. If there is more than
-    // one super-node, we store the most specific one.
-    Node permissionNodeClosest = null;
-    // Grab the player-specific set of PermissionNodes.
-    Collection<Node> nodes = this.getPermissionNodes();
-    // Go through each PermissionNode.
-    for (Node permissionNodeNext : nodes) {
-      // If this is the exact PermissionNode, we use this and that's it.
-      if (permissionNodeNext.isNode(node)) {
-        permissionNodeClosest = permissionNodeNext;
-        break;
-      }
-      // Is the PermissionNode being checked a super-node to the tested node?
-      if (permissionNodeNext.isSuperNode(node)) {
-        // If this is true, check and see if the closest-node argument is filled.
-        if (permissionNodeClosest != null) {
-          // If so, then check and see if the set closest-node is a super-node of the
-          // current closest-node being checked.
-          if (permissionNodeClosest.isSuperNode(permissionNodeNext)) {
-            // If so, set the next closest-node as the most specific super-node.
-            permissionNodeClosest = permissionNodeNext;
-          }
-        }
-        // So the current closest-node field isn't set, set it as the current
-        // closest-node.
-        else {
-          permissionNodeClosest = permissionNodeNext;
-        }
-      }
+    // Walk the trie one segment at a time. The deepest Node found on the way is either the
+    // exact definition, or the most specific super-node defined.
+    synchronized (this) {
+      return this.triePermissionNodes.getClosest(node);
     }
-    // Return the result node, if it exists.
-    return permissionNodeClosest;
   }
 
   /**
@@ -263,10 +221,10 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
    * @return Returns a PermissionNode if one exists for the PermissionObject.
    */
   public Node getExplicitPermissionNode(String node) {
-    // Validate the node argument.
-    node = node.toLowerCase().trim();
-    // Return the map result.
-    return this.mapPermissionNodes.get(node);
+    // Return the trie result.
+    synchronized (this) {
+      return this.triePermissionNodes.get(node);
+    }
   }
 
   /**
@@ -339,14 +297,20 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
     if (node == null) {
       throw new IllegalArgumentException("Node given is null.");
     }
-    if (mapPermissionNodes.containsKey(node.getNode())) {
-      Node nodePrevious = mapPermissionNodes.get(node.getNode());
+    Node nodePrevious;
+    synchronized (this) {
+      nodePrevious = triePermissionNodes.get(node.getNode());
+    }
+    if (nodePrevious != null) {
       nodePrevious.getMongoDocument().setMongoDocument(null);
       nodePrevious.setFlag(node.getFlag(), false);
     }
     node.getMongoDocument().setMongoDocument(getMongoDocument());
     getMongoDocument().addNode(node.getMongoDocument(), false);
-    mapPermissionNodes.put(node.getNode(), node);
+    synchronized (this) {
+      triePermissionNodes.put(node.getNode(), node);
+    }
+    invalidate();
     if (save) {
       getMongoDocument().save();
     }
@@ -365,16 +329,19 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
     }
     // Get the node in String format.
     String nodeAsString = node.getNode();
-    // Validate that the permission given is assigned to the object.
-    if (!mapPermissionNodes.containsKey(nodeAsString)) {
-      throw new IllegalArgumentException("Node given is not assigned to PermissionObject.");
+    synchronized (this) {
+      // Validate that the permission given is assigned to the object.
+      if (!triePermissionNodes.contains(nodeAsString)) {
+        throw new IllegalArgumentException("Node given is not assigned to PermissionObject.");
+      }
+      // If so, remove it from the trie first.
+      triePermissionNodes.remove(nodeAsString);
     }
-    // If so, remove it from the map first.
-    mapPermissionNodes.remove(nodeAsString);
     // Remove the node formally on the document layer, and save it if the parameter
     // flag to save is passed as true.
     getMongoDocument().removeNode(node.getMongoDocument(), save);
     node.setMongoDocument(null);
+    invalidate();
   }
 
   /**
@@ -385,19 +352,74 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
    * @param mongoDocument The MongoDocument to load the Nodes.
    */
   public void loadNodes(M mongoDocument) {
-    // Empty the map for the Nodes.
-    if (mapPermissionNodes == null) {
-      mapPermissionNodes = new HashMap<>();
-    } else {
-      mapPermissionNodes.clear();
+    synchronized (this) {
+      // Empty the trie for the Nodes.
+      if (triePermissionNodes == null) {
+        triePermissionNodes = new NodeTrie<>();
+      } else {
+        triePermissionNodes.clear();
+      }
+      // Go through each node document.
+      for (MongoNode mongoNode : mongoDocument.getMongoNodes()) {
+        // Create a node container.
+        Node node = new Node(mongoNode);
+        // Add it to the node trie.
+        triePermissionNodes.put(node.getNode(), node);
+      }
     }
-    // Go through each node document.
-    for (MongoNode mongoNode : mongoDocument.getMongoNodes()) {
-      // Create a node container.
-      Node node = new Node(mongoNode);
-      // Add it to the node map.
-      mapPermissionNodes.put(node.getNode(), node);
+    invalidate();
+  }
+
+  /**
+   * Marks the resolved permissions of the PermissionObject as stale by moving it to a new
+   * version, and passes the same version on to every object that inherits from it.
+   *
+   * <p>This is called after the Nodes assigned to the PermissionObject are added, removed,
+   * re-flagged through 'setPermission(String, Boolean, boolean)', or reloaded. Nothing is
+   * recompiled here. Anything compiled from the object compares versions the next time it is
+   * used.
+   */
+  public void invalidate() {
+    invalidate(VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * (Protected Method)
+   *
+   * <p>Moves the PermissionObject to the given version, if it is not already there.
+   *
+   * @param version The version to move to.
+   */
+  protected void invalidate(long version) {
+    // If the object has already seen this version, the fan-out has already passed through it.
+    // This also stops the fan-out from looping on a parent chain that loops back on itself.
+    if (this.version >= version) {
+      return;
     }
+    this.version = version;
+    onInvalidate(version);
+  }
+
+  /**
+   * (Protected Method)
+   *
+   * <p>Called after the PermissionObject moves to a new version. Sub-classes pass the version on
+   * to the objects that inherit from them.
+   *
+   * <p>(Note: This can be called from the constructor, before sub-class fields are assigned)
+   *
+   * @param version The new version.
+   */
+  protected void onInvalidate(long version) {
+    // Nothing inherits from a plain PermissionObject.
+  }
+
+  /**
+   * @return Returns the version of the PermissionObject. Anything compiled from the object is
+   *     stale if the version has changed since it was compiled.
+   */
+  public long getVersion() {
+    return this.version;
   }
 
   /** Saves the MongoDocument for the PermissionObject. */
@@ -410,15 +432,18 @@ public abstract class PermissionObject<M extends MongoUniqueNodeDocument>
   }
 
   /**
-   * @return Returns the Map of Node entries for the PermissionObject, identified by the String Node
-   *     format.
+   * @return Returns the NodeTrie of Node entries for the PermissionObject, identified by the String
+   *     Node format. The NodeTrie is not thread-safe. Only use it while synchronized on the object.
    */
-  public Map<String, Node> getPermissionMap() {
-    return this.mapPermissionNodes;
+  public NodeTrie<Node> getPermissionTrie() {
+    return this.triePermissionNodes;
   }
 
-  /** @return Returns a Collection of the Nodes assigned to the PermissionObject. */
-  public Collection<Node> getPermissionNodes() {
-    return getPermissionMap().values();
+  /**
+   * @return Returns a copy of the Nodes assigned to the PermissionObject. The copy is taken while
+   *     synchronized on the object, so it can be taken from any thread.
+   */
+  public synchronized Collection<Node> getPermissionNodes() {
+    return getPermissionTrie().values();
   }
 }
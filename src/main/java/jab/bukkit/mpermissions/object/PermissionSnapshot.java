@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.object;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, flattened view of the effective permissions for a PermissionGroup or PermissionUser.
+ *
+ * <p>The snapshot is compiled from every parent PermissionGroup, the PermissionGroup of the user,
+ * and the user's own Nodes, with the more specific definitions overriding the less specific ones.
+ *
+ * <p>Nodes are stored by their ID in the global NodeDictionary, as a pair of BitSets: one with the
+ * defined IDs, and one with the granted IDs. Testing a node is a single walk of the dictionary
+ * plus two bit tests, and does not allocate. Nodes are matched ignoring case.
+ *
+ * <p>Wildcard nodes, such as 'essentials.*', are compiled into a NodeMatcher instead. When a
+ * snapshot has wildcards, the most specific of the literal and wildcard definitions wins.
+ *
+ * @author Jab
+ */
+public class PermissionSnapshot {
+
+  /** The snapshot for an object with no definitions. */
+  private static final PermissionSnapshot EMPTY =
+      new PermissionSnapshot(new BitSet(), new BitSet(), Collections.emptyMap(), 0);
+
+  /** The IDs of the nodes defined in the snapshot. */
+  private final BitSet defined;
+
+  /** The IDs of the nodes granted in the snapshot. This is a subset of the defined IDs. */
+  private final BitSet granted;
+
+  /** The flags of the wildcard nodes defined in the snapshot, identified by their pattern. */
+  private final Map<String, Boolean> mapPatterns;
+
+  /** The compiled wildcard nodes. Null if the snapshot has no wildcard nodes. */
+  private final NodeMatcher matcher;
+
+  /** The amount of distinct nodes defined in the snapshot. */
+  private final int size;
+
+  /** The version of the PermissionObject the snapshot was compiled from. */
+  private final long version;
+
+  /**
+   * (Private Constructor)
+   *
+   * @param defined The IDs of the nodes defined in the snapshot.
+   * @param granted The IDs of the nodes granted in the snapshot.
+   * @param mapPatterns The flags of the wildcard nodes defined in the snapshot.
+   * @param version The version of the PermissionObject the snapshot was compiled from.
+   */
+  private PermissionSnapshot(
+      BitSet defined, BitSet granted, Map<String, Boolean> mapPatterns, long version) {
+    this.defined = defined;
+    this.granted = granted;
+    this.mapPatterns = mapPatterns;
+    this.matcher = mapPatterns.isEmpty() ? null : NodeMatcher.compile(mapPatterns);
+    this.size = defined.cardinality() + mapPatterns.size();
+    this.version = version;
+  }
+
+  /**
+   * @param node The String node being tested. Case and surrounding white-space are ignored.
+   * @return Returns true if the snapshot grants the String node being tested.
+   */
+  public boolean hasPermission(String node) {
+    return getFlag(node) == Boolean.TRUE;
+  }
+
+  /**
+   * @param node The String node being tested. Case and surrounding white-space are ignored.
+   * @return Returns the flag of the most specific definition for the String node. Returns null if
+   *     neither the node nor any super-node of the node is defined in the snapshot.
+   */
+  public Boolean getFlag(String node) {
+    NodeDictionary dictionary = NodeDictionary.getGlobal();
+    int id = dictionary.getClosestId(node, defined);
+    if (matcher != null) {
+      long scoreWildcard = matcher.match(node);
+      if (scoreWildcard != NodeMatcher.NO_MATCH
+          && (id == NodeDictionary.NO_ID
+              || scoreWildcard > score(dictionary.getNode(id), granted.get(id)))) {
+        return NodeMatcher.getFlag(scoreWildcard) ? Boolean.TRUE : Boolean.FALSE;
+      }
+    }
+    if (id == NodeDictionary.NO_ID) {
+      return null;
+    }
+    return granted.get(id) ? Boolean.TRUE : Boolean.FALSE;
+  }
+
+  /**
+   * @param node The String node being tested. Case and surrounding white-space are ignored.
+   * @return Returns true if the node, or a super-node of the node, is defined in the snapshot.
+   */
+  public boolean isPermissionSet(String node) {
+    return getFlag(node) != null;
+  }
+
+  /** @return Returns the version of the PermissionObject the snapshot was compiled from. */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /** @return Returns the amount of distinct nodes defined in the snapshot. */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Compiles the effective permissions for a PermissionGroup, from the group and every parent of
+   * the group.
+   *
+   * @param group The PermissionGroup to compile.
+   * @return Returns the compiled PermissionSnapshot.
+   */
+  public static PermissionSnapshot compile(PermissionGroup group) {
+    // Grab the version first. If anything changes while compiling, the version moves on and the
+    // snapshot is compiled again on the next test.
+    long version = group.getVersion();
+    // Grab the group chain, ordered from the group to the root parent.
+    List<PermissionGroup> listGroups = new ArrayList<>();
+    PermissionGroup next = group;
+    while (next != null && !listGroups.contains(next)) {
+      listGroups.add(next);
+      next = next.getParent();
+    }
+    BitSet defined = new BitSet();
+    BitSet granted = new BitSet();
+    Map<String, Boolean> mapPatterns = new LinkedHashMap<>();
+    // Apply the root parent first, so that each child definition overrides its parent's.
+    for (int index = listGroups.size() - 1; index >= 0; index--) {
+      apply(defined, granted, mapPatterns, listGroups.get(index));
+    }
+    return new PermissionSnapshot(defined, granted, mapPatterns, version);
+  }
+
+  /**
+   * Compiles the effective permissions for a PermissionUser. The compiled permissions of the
+   * PermissionGroup of the user are reused, and the user's own definitions are applied over them.
+   *
+   * @param user The PermissionUser to compile.
+   * @return Returns the compiled PermissionSnapshot.
+   */
+  public static PermissionSnapshot compile(PermissionUser user) {
+    // Grab the version first. If anything changes while compiling, the version moves on and the
+    // snapshot is compiled again on the next test.
+    long version = user.getVersion();
+    PermissionGroup group = user.getPermissionGroup();
+    PermissionSnapshot snapshotGroup = group != null ? group.getSnapshot() : EMPTY;
+    BitSet defined = (BitSet) snapshotGroup.defined.clone();
+    BitSet granted = (BitSet) snapshotGroup.granted.clone();
+    Map<String, Boolean> mapPatterns = new LinkedHashMap<>(snapshotGroup.mapPatterns);
+    // The user's own definitions override every group definition.
+    apply(defined, granted, mapPatterns, user);
+    // Share the group's patterns if the user adds none, so the matcher is compiled only once.
+    if (mapPatterns.size() == snapshotGroup.mapPatterns.size()
+        && mapPatterns.equals(snapshotGroup.mapPatterns)) {
+      mapPatterns = snapshotGroup.mapPatterns;
+    }
+    return new PermissionSnapshot(defined, granted, mapPatterns, version);
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Sets the bits for every literal Node in a PermissionObject, and collects its wildcard
+   * Nodes.
+   *
+   * @param defined The BitSet of defined IDs to set.
+   * @param granted The BitSet of granted IDs to set.
+   * @param mapPatterns The Map of wildcard flags to collect into.
+   * @param object The PermissionObject to copy from.
+   */
+  private static void apply(
+      BitSet defined,
+      BitSet granted,
+      Map<String, Boolean> mapPatterns,
+      PermissionObject<?> object) {
+    for (Node node : object.getPermissionNodes()) {
+      if (node.isWildcard()) {
+        mapPatterns.put(node.getNode(), node.getFlag());
+        continue;
+      }
+      int id = node.getId();
+      defined.set(id);
+      granted.set(id, node.getFlag());
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param node The literal String node.
+   * @param flag The flag of the node.
+   * @return Returns the score of the literal node, for comparing it with wildcard nodes.
+   */
+  private static long score(String node, boolean flag) {
+    int separators = 0;
+    for (int index = 0; index < node.length(); index++) {
+      if (node.charAt(index) == NodeTrie.SEPARATOR) {
+        separators++;
+      }
+    }
+    int depth = separators + 1;
+    return NodeMatcher.score(depth, depth, node.length() - separators, flag);
+  }
+}
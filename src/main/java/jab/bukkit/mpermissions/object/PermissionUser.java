@@ -17,6 +17,8 @@
 package jab.bukkit.mpermissions.object;
 
 import jab.bukkit.mpermissions.mongo.MongoPermissionUser;
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.metrics.jfr.PermissionCheckEvent;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
@@ -37,6 +39,14 @@ public class PermissionUser extends PermissionObject<MongoPermissionUser> {
 
   private PermissionGroup permissionGroupTemporary;
 
+  /**
+   * The compiled effective permissions for the user. Null until the first permission is tested.
+   */
+  private volatile PermissionSnapshot snapshot;
+
+  /** The cache of the most recent permission results for the user. */
+  private final PermissionCache cache = new PermissionCache();
+
   /**
    * Main constructor.
    *
@@ -49,61 +59,48 @@ public class PermissionUser extends PermissionObject<MongoPermissionUser> {
 
   @Override
   public boolean hasPermission(String node) {
-    // Our returning flag result.
-    boolean returned = false;
-    // This will be the group's returned node for the one requested, if one is
-    // defined.
-    Node nodeGroup = null;
-    // This will be the user's returned node for the one requested, if one is
-    // defined.
-    Node nodeUser;
-    // Get the PermissionGroup associated with the user.
-    PermissionGroup group = getPermissionGroup();
-    // Check and see if the group exists.
-    if (group != null) {
-      // If so, then Grab the flag from the group.
-      nodeGroup = group.getClosestPermissionNode(node);
-    }
-    // After the group comes any user-specific settings. This means that if a group
-    // has a true flag for the node in question, and the user has a false flag, then
-    // this means that the user overrides the group flag.
-    //
-    // Grab the closest permission for the user, if one exists.
-    nodeUser = getClosestPermissionNode(node);
-    // If the user has a Node definition affecting the one given
-    if (nodeUser != null) {
-      // If the group also has a definition for this node.
-      if (nodeGroup != null) {
-        // If they are equal, the user has authority over the group definition.
-        // If the user is a sub-node of the most specific node defined for the group,
-        // The user definition also has authority.
-        if (nodeGroup.equals(nodeUser) || nodeUser.isSubNode(nodeGroup)) {
-          // Set the user node's flag as the returned value.
-          returned = nodeUser.getFlag();
-        }
-        // In this situation, the group definition is the most specific, being the
-        // sub-node to the user, so the group node definition has the authority.
-        else {
-          // Set the group node's flag as the returned value.
-          returned = nodeGroup.getFlag();
-        }
-      } else {
-        // Set the user node's flag as the returned value.
-        returned = nodeUser.getFlag();
-      }
+    return getFlag(node) == Boolean.TRUE;
+  }
+
+  /**
+   * Grabs the flag of the most specific definition for a String node. Recent results are answered
+   * from the cache of the user, until the user, its group, or any parent of the group changes.
+   *
+   * <p>The snapshot already resolves the user's definitions over the group's definitions, and the
+   * group's definitions over its parents' definitions, with the most specific node taking
+   * authority. Nodes are matched ignoring case, so the node does not need formatting.
+   *
+   * <p>A sample of the checks are timed as JFR events, when JFR is available.
+   *
+   * @param node The String node being tested.
+   * @return Returns the flag for the String node, or null if neither the node nor any super-node
+   *     of the node is defined.
+   */
+  public Boolean getFlag(String node) {
+    if (!FlightRecorderSupport.samplePermissionCheck()) {
+      return cache.getFlag(node, this);
     }
-    // In this situation, the user has no node defined for the one requested.
-    else {
-      // If the group has a definition for the node, while the user does not.
-      // This should be the most common result, as user-specific permissions
-      // are not the best practice for permissions, although it is reserved for
-      // special instances or rare occasions.
-      if (nodeGroup != null) {
-        // Set the group node's flag as the returned value.
-        returned = nodeGroup.getFlag();
-      }
+    PermissionCheckEvent event = new PermissionCheckEvent();
+    event.begin();
+    Boolean flag = cache.getFlag(node, this);
+    event.record("PermissionUser", getUniqueId(), node, flag);
+    return flag;
+  }
+
+  /**
+   * @return Returns the compiled effective permissions for the user. The snapshot is compiled
+   *     again only after its inputs have changed.
+   */
+  public PermissionSnapshot getSnapshot() {
+    PermissionSnapshot returned = this.snapshot;
+    // If the user, its group, or any parent of the group has changed since the snapshot was
+    // compiled, the version of the user has moved on. Compile it again.
+    if (returned == null || returned.getVersion() != getVersion()) {
+      // Any thread testing a permission may compile. The Nodes are copied under the lock of each
+      // object, and the volatile field publishes the result.
+      returned = PermissionSnapshot.compile(this);
+      this.snapshot = returned;
     }
-    // Return the result flag.
     return returned;
   }
 
@@ -150,16 +147,49 @@ public class PermissionUser extends PermissionObject<MongoPermissionUser> {
    * @param save The flag to save the document.
    */
   public void setPermissionGroup(PermissionGroup permissionGroup, boolean save) {
+    PermissionGroup groupPrevious = getPermissionGroup();
     this.permissionGroup = permissionGroup;
+    relink(groupPrevious);
     UUID groupId = null;
     if (permissionGroup != null) {
       groupId = permissionGroup.getUniqueId();
     }
     getMongoDocument().setGroupId(groupId, save);
+    invalidate();
   }
 
+  /**
+   * Sets the PermissionGroup used for the PermissionUser when no PermissionGroup is assigned,
+   * without affecting the MongoDocument.
+   *
+   * @param permissionGroup The PermissionGroup to set.
+   */
   public void setTemporaryPermissionGroup(PermissionGroup permissionGroup) {
+    PermissionGroup groupPrevious = getPermissionGroup();
     this.permissionGroupTemporary = permissionGroup;
+    relink(groupPrevious);
+    invalidate();
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Moves the PermissionUser from the member list of the previous PermissionGroup to the
+   * member list of the current PermissionGroup, so that changes to the group reach the user.
+   *
+   * @param groupPrevious The PermissionGroup the user resolved to before the change.
+   */
+  private void relink(PermissionGroup groupPrevious) {
+    PermissionGroup group = getPermissionGroup();
+    if (groupPrevious == group) {
+      return;
+    }
+    if (groupPrevious != null) {
+      groupPrevious.unlinkMember(this);
+    }
+    if (group != null) {
+      group.linkMember(this);
+    }
   }
 
   /** @return Returns the Unique ID identifier associated with the PermissionUsers Player. */
@@ -174,6 +204,11 @@ public class PermissionUser extends PermissionObject<MongoPermissionUser> {
     return getMongoDocument().getGroupId();
   }
 
+  /** @return Returns the cache of the most recent permission results for the user. */
+  public PermissionCache getCache() {
+    return this.cache;
+  }
+
   /** @return Returns true if the PermissionUser is assigned to a PermissionGroup. */
   public boolean hasPermissionGroup() {
     return this.permissionGroup != null;
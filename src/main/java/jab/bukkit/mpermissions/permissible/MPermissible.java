@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.permissible;
+
+import jab.bukkit.mpermissions.object.PermissionUser;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissibleBase;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+
+import java.util.Set;
+
+/**
+ * PermissibleBase that answers permission checks for a Player directly from the compiled
+ * permissions of the Player's PermissionUser.
+ *
+ * <p>Nodes defined for the PermissionUser, its PermissionGroup, or any parent are answered with a
+ * single snapshot lookup. Only nodes that MPermissions does not define fall back to Bukkit's
+ * defaults and PermissionAttachments. Bukkit recalculates those on every attachment or operator
+ * change, so the recalculation is deferred until a fallback actually needs it.
+ *
+ * @author Jab
+ */
+public class MPermissible extends PermissibleBase {
+
+  /** The Player the Permissible is injected into. */
+  private final Player player;
+
+  /** The PermissionUser answering permission checks. Null until the user is loaded. */
+  private volatile PermissionUser user;
+
+  /**
+   * Flag for Bukkit's defaults and attachments needing to be recalculated before the next fallback
+   * check.
+   *
+   * <p>(Note: This is not initialized in the declaration, as the PermissibleBase constructor
+   * already sets it through 'recalculatePermissions()')
+   */
+  private volatile boolean recalculate;
+
+  /**
+   * Main constructor.
+   *
+   * @param player The Player being injected.
+   * @param user The PermissionUser of the Player. This can be null, and set later.
+   */
+  public MPermissible(Player player, PermissionUser user) {
+    super(player);
+    this.player = player;
+    setPermissionUser(user);
+  }
+
+  @Override
+  public boolean hasPermission(String node) {
+    Boolean flag = getFlag(node);
+    if (flag != null) {
+      return flag;
+    }
+    calculate();
+    return super.hasPermission(node);
+  }
+
+  @Override
+  public boolean hasPermission(Permission permission) {
+    Boolean flag = getFlag(permission.getName());
+    if (flag != null) {
+      return flag;
+    }
+    calculate();
+    return super.hasPermission(permission);
+  }
+
+  @Override
+  public boolean isPermissionSet(String node) {
+    if (getFlag(node) != null) {
+      return true;
+    }
+    calculate();
+    return super.isPermissionSet(node);
+  }
+
+  @Override
+  public boolean isPermissionSet(Permission permission) {
+    return isPermissionSet(permission.getName());
+  }
+
+  @Override
+  public void recalculatePermissions() {
+    // Bukkit calls this for every attachment and operator change. Defer the work until a check
+    // falls back to Bukkit.
+    this.recalculate = true;
+  }
+
+  @Override
+  public Set<PermissionAttachmentInfo> getEffectivePermissions() {
+    calculate();
+    return super.getEffectivePermissions();
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param node The String node being tested.
+   * @return Returns the flag defined for the node by MPermissions, or null if the node is not
+   *     defined or the PermissionUser is not loaded.
+   */
+  private Boolean getFlag(String node) {
+    PermissionUser user = this.user;
+    if (user == null || node == null) {
+      return null;
+    }
+    return user.getFlag(node);
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Recalculates Bukkit's defaults and attachments if they have changed since the last fallback
+   * check.
+   */
+  private void calculate() {
+    if (this.recalculate) {
+      synchronized (this) {
+        if (this.recalculate) {
+          this.recalculate = false;
+          super.recalculatePermissions();
+        }
+      }
+    }
+  }
+
+  /** @return Returns the Player the Permissible is injected into. */
+  public Player getPlayer() {
+    return this.player;
+  }
+
+  /** @return Returns the PermissionUser answering permission checks, if one is loaded. */
+  public PermissionUser getPermissionUser() {
+    return this.user;
+  }
+
+  /**
+   * Sets the PermissionUser answering permission checks.
+   *
+   * @param user The PermissionUser to set. Set to null to fall back to Bukkit entirely.
+   */
+  public void setPermissionUser(PermissionUser user) {
+    this.user = user;
+  }
+}
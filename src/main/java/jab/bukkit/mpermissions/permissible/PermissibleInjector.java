@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.bukkit.mpermissions.permissible;
+
+import jab.bukkit.mpermissions.object.PermissionUser;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissibleBase;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility class to replace the PermissibleBase of a Player with an MPermissible.
+ *
+ * <p>CraftBukkit stores the PermissibleBase of a Player in the field 'perm' of CraftHumanEntity.
+ * The field is located by name through the class hierarchy of the Player, so the injector does not
+ * depend on a specific CraftBukkit version package.
+ *
+ * @author Jab
+ */
+public class PermissibleInjector {
+
+  /** The name of the PermissibleBase field in CraftHumanEntity. */
+  private static final String FIELD_NAME = "perm";
+
+  /** The Map of original PermissibleBases, identified by the Unique ID of their Player. */
+  private final Map<UUID, PermissibleBase> mapOriginals = new ConcurrentHashMap<>();
+
+  /** The resolved 'perm' field. Null until the first injection. */
+  private Field field;
+
+  /**
+   * Injects an MPermissible into the given Player. If the Player is already injected, the
+   * PermissionUser of the existing MPermissible is updated instead.
+   *
+   * @param player The Player to inject.
+   * @param user The PermissionUser of the Player. This can be null, and set later.
+   * @return Returns the injected MPermissible.
+   */
+  public MPermissible inject(Player player, PermissionUser user) {
+    try {
+      Field field = getField(player);
+      Object current = field.get(player);
+      if (current instanceof MPermissible) {
+        MPermissible returned = (MPermissible) current;
+        returned.setPermissionUser(user);
+        return returned;
+      }
+      MPermissible returned = new MPermissible(player, user);
+      field.set(player, returned);
+      mapOriginals.put(player.getUniqueId(), (PermissibleBase) current);
+      return returned;
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(
+          "Failed to inject the Permissible for Player \"" + player.getName() + "\".", e);
+    }
+  }
+
+  /**
+   * Restores the original PermissibleBase of the given Player, if the Player is injected.
+   *
+   * @param player The Player to restore.
+   */
+  public void uninject(Player player) {
+    PermissibleBase original = mapOriginals.remove(player.getUniqueId());
+    if (original == null) {
+      return;
+    }
+    try {
+      Field field = getField(player);
+      if (field.get(player) instanceof MPermissible) {
+        field.set(player, original);
+        original.recalculatePermissions();
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(
+          "Failed to restore the Permissible for Player \"" + player.getName() + "\".", e);
+    }
+  }
+
+  /**
+   * Forgets the original PermissibleBase of the given Player without restoring it. This is used
+   * when the Player disconnects, and the entity is discarded.
+   *
+   * @param player The Player to forget.
+   */
+  public void forget(Player player) {
+    mapOriginals.remove(player.getUniqueId());
+  }
+
+  /**
+   * @param player The Player to test.
+   * @return Returns the MPermissible injected into the Player, or null if the Player is not
+   *     injected.
+   */
+  public MPermissible getPermissible(Player player) {
+    try {
+      Object current = getField(player).get(player);
+      return current instanceof MPermissible ? (MPermissible) current : null;
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param player The Player to resolve the field from.
+   * @return Returns the accessible 'perm' field of the Player's class.
+   * @throws NoSuchFieldException Thrown if no class in the Player's hierarchy declares the field.
+   */
+  private Field getField(Player player) throws NoSuchFieldException {
+    Field returned = this.field;
+    if (returned != null && returned.getDeclaringClass().isInstance(player)) {
+      return returned;
+    }
+    Class<?> clazz = player.getClass();
+    while (clazz != null) {
+      try {
+        returned = clazz.getDeclaredField(FIELD_NAME);
+        if (PermissibleBase.class.isAssignableFrom(returned.getType())) {
+          returned.setAccessible(true);
+          this.field = returned;
+          return returned;
+        }
+      } catch (NoSuchFieldException ignored) {
+        // Continue to the super-class.
+      }
+      clazz = clazz.getSuperclass();
+    }
+    throw new NoSuchFieldException(
+        "No PermissibleBase field \"" + FIELD_NAME + "\" in " + player.getClass().getName());
+  }
+}
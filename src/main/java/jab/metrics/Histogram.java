@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, such as latencies in nanoseconds or batch sizes. Values are
+ * counted in power-of-two buckets, so recording takes constant time and memory, and percentiles
+ * are accurate to within a factor of two.
+ *
+ * <p>Values can be recorded from any thread.
+ *
+ * @author Jab
+ */
+public class Histogram {
+
+  /** The amount of buckets. Bucket 'i' counts values below 2^i, and at least 2^(i - 1). */
+  private static final int BUCKETS = 64;
+
+  /** The counts of the buckets. */
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  /** The amount of values recorded. */
+  private final LongAdder count = new LongAdder();
+  /** The sum of the values recorded. */
+  private final LongAdder sum = new LongAdder();
+  /** The largest value recorded. */
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   *
+   * @param value The value to record.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(bucket(value));
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  /** @return Returns the amount of values recorded. */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** @return Returns the mean of the values recorded, or 0 if none are recorded. */
+  public double getMean() {
+    long count = this.count.sum();
+    return count == 0 ? 0.0 : (double) sum.sum() / count;
+  }
+
+  /** @return Returns the largest value recorded. */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile The percentile, from 0 to 100.
+   * @return Returns the upper bound of the bucket holding the percentile, capped at the largest
+   *     value recorded. Returns 0 if no values are recorded.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be from 0 to 100.");
+    }
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int index = 0; index < BUCKETS; index++) {
+      counts[index] = buckets.get(index);
+      total += counts[index];
+    }
+    if (total == 0) {
+      return 0L;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int index = 0; index < BUCKETS; index++) {
+      seen += counts[index];
+      if (seen >= rank && seen > 0) {
+        long upper = index >= 63 ? Long.MAX_VALUE : (1L << index) - 1;
+        return Math.min(upper, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param value The non-negative value.
+   * @return Returns the bucket counting the value.
+   */
+  private static int bucket(long value) {
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MetricsExporter writing every metric to a Logger, one line per metric.
+ *
+ * @author Jab
+ */
+public class LoggerMetricsExporter implements MetricsExporter {
+
+  /** The Logger to write to. */
+  private final Logger logger;
+
+  /**
+   * Main constructor.
+   *
+   * @param logger The Logger to write to.
+   */
+  public LoggerMetricsExporter(Logger logger) {
+    this.logger = logger;
+  }
+
+  @Override
+  public void export(MetricsRegistry registry) {
+    for (String line : registry.format()) {
+      logger.log(Level.INFO, line);
+    }
+  }
+}
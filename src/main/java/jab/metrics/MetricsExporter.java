@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics;
+
+/**
+ * Interface for sending the metrics of a MetricsRegistry somewhere else, such as a log or a
+ * monitoring system. Exporters are called by 'MetricsRegistry.export()'.
+ *
+ * @author Jab
+ */
+public interface MetricsExporter {
+
+  /**
+   * Exports the current metrics of a registry.
+   *
+   * @param registry The MetricsRegistry to export.
+   */
+  void export(MetricsRegistry registry);
+}
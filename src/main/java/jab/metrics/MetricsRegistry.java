@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of named metrics: gauges read on demand, Histograms, and Rates. Metrics are kept sorted
+ * by name, so related metrics sharing a prefix are listed together.
+ *
+ * <p>Registering and reading metrics is thread-safe. Metrics are read by '/mp stats', and sent to
+ * every registered MetricsExporter by 'export()'.
+ *
+ * @author Jab
+ */
+public class MetricsRegistry {
+
+  /** The metrics, identified by their name. Values are Supplier gauges, Histograms, or Rates. */
+  private final Map<String, Object> mapMetrics = new ConcurrentSkipListMap<>();
+  /** The exporters called by 'export()'. */
+  private final List<MetricsExporter> listExporters = new CopyOnWriteArrayList<>();
+
+  /**
+   * Registers a gauge, read every time the metrics are read. A metric with the same name is
+   * replaced.
+   *
+   * @param name The String name of the metric.
+   * @param gauge The Supplier reading the value.
+   */
+  public void gauge(String name, Supplier<? extends Number> gauge) {
+    mapMetrics.put(name, gauge);
+  }
+
+  /**
+   * Grabs the Histogram with a name, registering it if it does not exist.
+   *
+   * @param name The String name of the metric.
+   * @return Returns the Histogram.
+   */
+  public Histogram histogram(String name) {
+    Object metric = mapMetrics.computeIfAbsent(name, key -> new Histogram());
+    if (!(metric instanceof Histogram)) {
+      throw new IllegalStateException("Metric is not a Histogram: \"" + name + "\".");
+    }
+    return (Histogram) metric;
+  }
+
+  /**
+   * Registers the Rate of a counter. A metric with the same name is replaced.
+   *
+   * @param name The String name of the metric.
+   * @param counter The counter to measure.
+   * @return Returns the registered Rate.
+   */
+  public Rate rate(String name, LongSupplier counter) {
+    Rate rate = new Rate(counter, Rate.DEFAULT_WINDOW);
+    mapMetrics.put(name, rate);
+    return rate;
+  }
+
+  /**
+   * Removes a metric.
+   *
+   * @param name The String name of the metric.
+   */
+  public void remove(String name) {
+    mapMetrics.remove(name);
+  }
+
+  /** @return Returns a read-only view of the metrics, sorted by name. */
+  public Map<String, Object> getMetrics() {
+    return Collections.unmodifiableMap(mapMetrics);
+  }
+
+  /**
+   * Formats every metric as a line of text. Histograms of names ending with 'nanos' are shown in
+   * milliseconds.
+   *
+   * @return Returns a List of lines, one per metric.
+   */
+  public List<String> format() {
+    List<String> listLines = new ArrayList<>();
+    for (Map.Entry<String, Object> entry : mapMetrics.entrySet()) {
+      String name = entry.getKey();
+      Object metric = entry.getValue();
+      String value;
+      if (metric instanceof Histogram) {
+        Histogram histogram = (Histogram) metric;
+        double scale = name.endsWith("nanos") ? 1e-6 : 1.0;
+        value =
+            String.format(
+                "count=%d mean=%.2f p50=%.2f p99=%.2f max=%.2f",
+                histogram.getCount(),
+                histogram.getMean() * scale,
+                histogram.getPercentile(50) * scale,
+                histogram.getPercentile(99) * scale,
+                histogram.getMax() * scale);
+      } else if (metric instanceof Rate) {
+        Rate rate = (Rate) metric;
+        value = String.format("%.1f/s (total %d)", rate.getRate(), rate.getCount());
+      } else {
+        Object read;
+        try {
+          read = ((Supplier<?>) metric).get();
+        } catch (RuntimeException e) {
+          // A gauge reading a source that is gone should not hide the other metrics.
+          read = null;
+        }
+        if (read instanceof Double || read instanceof Float) {
+          value = String.format("%.3f", ((Number) read).doubleValue());
+        } else {
+          value = String.valueOf(read);
+        }
+      }
+      listLines.add(name + ": " + value);
+    }
+    return listLines;
+  }
+
+  /**
+   * Adds an exporter called by 'export()'.
+   *
+   * @param exporter The MetricsExporter to add.
+   */
+  public void addExporter(MetricsExporter exporter) {
+    listExporters.add(exporter);
+  }
+
+  /**
+   * Removes an exporter.
+   *
+   * @param exporter The MetricsExporter to remove.
+   */
+  public void removeExporter(MetricsExporter exporter) {
+    listExporters.remove(exporter);
+  }
+
+  /** @return Returns true if any exporter is registered. */
+  public boolean hasExporters() {
+    return !listExporters.isEmpty();
+  }
+
+  /** Sends the current metrics to every registered exporter. A failing exporter is reported. */
+  public void export() {
+    for (MetricsExporter exporter : listExporters) {
+      try {
+        exporter.export(this);
+      } catch (RuntimeException e) {
+        System.err.println("Failed to export metrics:");
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The rate per second of a counter that only increases. The rate is measured between reads, at
+ * most once per window, so counting stays on the counter's own fast path.
+ *
+ * @author Jab
+ */
+public class Rate {
+
+  /** The default window, in milliseconds, the rate is measured over. */
+  public static final long DEFAULT_WINDOW = 5000L;
+
+  /** The counter being measured. */
+  private final LongSupplier counter;
+  /** The window, in nanoseconds, the rate is measured over. */
+  private final long windowNanos;
+  /** The count at the start of the current window. */
+  private long countLast;
+  /** The System.nanoTime() at the start of the current window. */
+  private long timeLast;
+  /** The rate measured over the last full window. */
+  private double rate;
+
+  /**
+   * Main constructor.
+   *
+   * @param counter The counter being measured.
+   * @param window The window, in milliseconds, the rate is measured over.
+   */
+  public Rate(LongSupplier counter, long window) {
+    if (window < 1) {
+      throw new IllegalArgumentException("Window must be at least 1 millisecond.");
+    }
+    this.counter = counter;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+    this.countLast = counter.getAsLong();
+    this.timeLast = System.nanoTime();
+  }
+
+  /**
+   * @return Returns the rate per second measured over the last full window. Until one window has
+   *     passed, the rate since the Rate was created is returned.
+   */
+  public synchronized double getRate() {
+    long now = System.nanoTime();
+    long elapsed = now - timeLast;
+    long count = counter.getAsLong();
+    if (elapsed >= windowNanos) {
+      rate = (count - countLast) * 1e9 / elapsed;
+      countLast = count;
+      timeLast = now;
+    } else if (rate == 0.0 && elapsed > 0) {
+      return (count - countLast) * 1e9 / elapsed;
+    }
+    return rate;
+  }
+
+  /** @return Returns the current count. */
+  public long getCount() {
+    return counter.getAsLong();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics.jfr;
+
+/**
+ * Guards the JDK Flight Recorder events, so they cost nothing on a JVM without JFR.
+ *
+ * <p>No JFR type is referenced here. Code emitting an event checks {@link #AVAILABLE} first, and
+ * only then touches the event class. The flag is constant, so on a JVM without JFR the check is
+ * compiled away. With JFR present but not recording, an event is created, never committed, and
+ * usually never leaves the stack.
+ *
+ * <p>JFR can be turned off for the plug-in with '-Dmpermissions.jfr=false'.
+ *
+ * @author Jab
+ */
+public final class FlightRecorderSupport {
+
+  /** Flag for JFR events being emitted. */
+  public static final boolean AVAILABLE = detect();
+
+  /** The default amount of permission checks per sampled check. */
+  public static final int DEFAULT_PERMISSION_SAMPLE_RATE = 1024;
+
+  /** The mask selecting one in every (mask + 1) permission checks. */
+  private static volatile int permissionSampleMask = DEFAULT_PERMISSION_SAMPLE_RATE - 1;
+  /**
+   * The counter of permission checks. Updates are not atomic, and a lost update only shifts which
+   * check is sampled.
+   */
+  private static int permissionCounter;
+
+  private FlightRecorderSupport() {}
+
+  /**
+   * @return Returns true if the current permission check should emit a PermissionCheckEvent. This
+   *     is true for one in every 'getPermissionSampleRate()' checks while JFR is available.
+   */
+  public static boolean samplePermissionCheck() {
+    return AVAILABLE && (++permissionCounter & permissionSampleMask) == 0;
+  }
+
+  /** @return Returns the amount of permission checks per sampled check. */
+  public static int getPermissionSampleRate() {
+    return permissionSampleMask + 1;
+  }
+
+  /**
+   * Sets the amount of permission checks per sampled check. The rate is rounded up to a power of
+   * two.
+   *
+   * @param rate The rate to set. 1 samples every check.
+   */
+  public static void setPermissionSampleRate(int rate) {
+    if (rate < 1 || rate > (1 << 30)) {
+      throw new IllegalArgumentException("Sample rate must be from 1 to 2^30.");
+    }
+    int rounded = Integer.highestOneBit(rate);
+    if (rounded < rate) {
+      rounded <<= 1;
+    }
+    permissionSampleMask = rounded - 1;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @return Returns true if the JVM provides JFR events, and they are not turned off.
+   */
+  private static boolean detect() {
+    if (!Boolean.parseBoolean(System.getProperty("mpermissions.jfr", "true"))) {
+      return false;
+    }
+    try {
+      Class.forName("jdk.jfr.Event", false, FlightRecorderSupport.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a poll of the MongoAction collection.
+ *
+ * <p>(Note: Only use this after checking 'FlightRecorderSupport.AVAILABLE')
+ *
+ * @author Jab
+ */
+@Name("jab.mpermissions.MongoActionPoll")
+@Label("Mongo Action Poll")
+@Category({"MPermissions", "MongoDB"})
+@Description("A query of the action collection for actions dispatched by other servers.")
+@StackTrace(false)
+public class MongoActionPollEvent extends Event {
+
+  @Label("Collection")
+  private String collection;
+
+  @Label("Actions")
+  private int actions;
+
+  /**
+   * Ends the event, and commits it if it is being recorded.
+   *
+   * @param collection The String name of the collection polled.
+   * @param actions The amount of actions read.
+   */
+  public void record(String collection, int actions) {
+    end();
+    if (shouldCommit()) {
+      this.collection = collection;
+      this.actions = actions;
+      commit();
+    }
+  }
+}
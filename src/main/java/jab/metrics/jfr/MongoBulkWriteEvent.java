@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a bulk write sent by the transaction worker.
+ *
+ * <p>(Note: Only use this after checking 'FlightRecorderSupport.AVAILABLE')
+ *
+ * @author Jab
+ */
+@Name("jab.mpermissions.MongoBulkWrite")
+@Label("Mongo Bulk Write")
+@Category({"MPermissions", "MongoDB"})
+@Description("A bulk write of queued document transactions to one collection.")
+@StackTrace(false)
+public class MongoBulkWriteEvent extends Event {
+
+  @Label("Collection")
+  private String collection;
+
+  @Label("Transactions")
+  private int transactions;
+
+  @Label("Requests")
+  private int requests;
+
+  @Label("Failures")
+  private int failures;
+
+  @Label("Oldest Transaction Age")
+  @Description("The time, in milliseconds, the oldest transaction waited in the queue.")
+  private long queuedMillis;
+
+  /**
+   * Ends the event, and commits it if it is being recorded.
+   *
+   * @param collection The String name of the collection written to.
+   * @param transactions The amount of transactions in the bulk write.
+   * @param requests The amount of write requests in the bulk write.
+   * @param failures The amount of write requests that failed.
+   * @param queuedMillis The time, in milliseconds, the oldest transaction waited in the queue.
+   */
+  public void record(
+      String collection, int transactions, int requests, int failures, long queuedMillis) {
+    end();
+    if (shouldCommit()) {
+      this.collection = collection;
+      this.transactions = transactions;
+      this.requests = requests;
+      this.failures = failures;
+      this.queuedMillis = queuedMillis;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics.jfr;
+
+import java.util.function.IntSupplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for loading or saving a MongoDocument.
+ *
+ * <p>(Note: Only use this after checking 'FlightRecorderSupport.AVAILABLE')
+ *
+ * @author Jab
+ */
+@Name("jab.mpermissions.MongoDocument")
+@Label("Mongo Document")
+@Category({"MPermissions", "MongoDB"})
+@Description("A document built from, or queued to be written to, MongoDB.")
+public class MongoDocumentEvent extends Event {
+
+  @Label("Operation")
+  private String operation;
+
+  @Label("Collection")
+  private String collection;
+
+  @Label("Document ID")
+  private String documentId;
+
+  @Label("Size")
+  @Description("The encoded size of the document, or of the changes saved.")
+  @DataAmount
+  private int size;
+
+  /**
+   * Ends the event, and commits it if it is being recorded. The size is only measured when the
+   * event is committed.
+   *
+   * @param operation The String operation, such as "load" or "save".
+   * @param collection The String name of the collection.
+   * @param documentId The ID of the document.
+   * @param size The IntSupplier measuring the encoded size, in bytes.
+   */
+  public void record(String operation, String collection, Object documentId, IntSupplier size) {
+    end();
+    if (shouldCommit()) {
+      this.operation = operation;
+      this.collection = collection;
+      this.documentId = documentId != null ? documentId.toString() : null;
+      this.size = size.getAsInt();
+      commit();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.metrics.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a sampled permission check.
+ *
+ * <p>(Note: Only use this after checking 'FlightRecorderSupport.AVAILABLE')
+ *
+ * @author Jab
+ */
+@Name("jab.mpermissions.PermissionCheck")
+@Label("Permission Check")
+@Category({"MPermissions", "Permissions"})
+@Description("A sampled permission check, timed from the lookup to the result.")
+@StackTrace(false)
+public class PermissionCheckEvent extends Event {
+
+  @Label("Node")
+  private String node;
+
+  @Label("Object Type")
+  private String objectType;
+
+  @Label("Object ID")
+  private String objectId;
+
+  @Label("Result")
+  @Description("The flag defined for the node, or 'undefined'.")
+  private String result;
+
+  /**
+   * Ends the event, and commits it if it is being recorded.
+   *
+   * @param objectType The String type of the PermissionObject checked.
+   * @param objectId The Unique ID of the PermissionObject checked.
+   * @param node The String node checked.
+   * @param flag The flag defined for the node, or null if none is defined.
+   */
+  public void record(String objectType, UUID objectId, String node, Boolean flag) {
+    end();
+    if (shouldCommit()) {
+      this.objectType = objectType;
+      this.objectId = objectId != null ? objectId.toString() : null;
+      this.node = node;
+      this.result = flag != null ? flag.toString() : "undefined";
+      commit();
+    }
+  }
+}
@@ -16,11 +16,18 @@
 
 package jab.mongo;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 
+import jab.mongo.document.MongoUniqueDocument;
 import jab.mongo.transaction.MongoDocumentTransactionDelete;
+import jab.mongo.transaction.MongoDocumentTransactionInsert;
+import jab.mongo.transaction.MongoDocumentTransactionUpdate;
 import jab.mongo.transaction.MongoDocumentTransactionUpsert;
 
 /**
@@ -34,6 +41,8 @@ public class MongoCollection {
   private MongoDatabase database;
   /** The actual DBCollection in the MongoDB API. */
   private DBCollection collection;
+  /** The indexes declared for the collection. */
+  private final List<MongoIndex> listIndexes = new ArrayList<>();
 
   /**
    * Main constructor.
@@ -52,6 +61,24 @@ public class MongoCollection {
     getDatabase().addTransaction(upsert);
   }
 
+  /**
+   * Queues the insert of a new document. If a unique index reports a document with the same ID,
+   * the document is told through 'MongoUniqueDocument.onDuplicateId(MongoException)'.
+   *
+   * @param object The DBObject to insert.
+   * @param field The String field identifying the document.
+   * @param document The MongoUniqueDocument being inserted.
+   */
+  public void insert(DBObject object, String field, MongoUniqueDocument document) {
+    getDatabase().addTransaction(new MongoDocumentTransactionInsert(this, object, field, document));
+  }
+
+  public void update(MongoDocumentTransactionUpdate update) {
+    if (!update.isEmpty()) {
+      getDatabase().addTransaction(update);
+    }
+  }
+
   public void delete(String field, Object value) {
     MongoDocumentTransactionDelete delete = new MongoDocumentTransactionDelete(this, field, value);
     getDatabase().addTransaction(delete);
@@ -65,6 +92,82 @@ public class MongoCollection {
     return getDBCollection().find(query);
   }
 
+  public DBObject findOne(DBObject query) {
+    return getDBCollection().findOne(query);
+  }
+
+  /**
+   * Declares an index for the collection. A declared index with the same keys is replaced. The
+   * index is created on the server by 'reconcileIndexes()'.
+   *
+   * @param index The MongoIndex to declare.
+   */
+  public synchronized void addIndex(MongoIndex index) {
+    for (int position = 0; position < listIndexes.size(); position++) {
+      if (listIndexes.get(position).getKeys().equals(index.getKeys())) {
+        listIndexes.set(position, index);
+        return;
+      }
+    }
+    listIndexes.add(index);
+  }
+
+  /** @return Returns a copy of the List of indexes declared for the collection. */
+  public synchronized List<MongoIndex> getIndexes() {
+    return new ArrayList<>(listIndexes);
+  }
+
+  /**
+   * Makes the indexes on the server match the declared indexes. Missing indexes are created, and a
+   * TTL index with a different expire time is changed in place. An index with the same keys but a
+   * different unique flag cannot be changed, so only that index is dropped and created again.
+   * Indexes that were not declared are left alone. This is a blocking call, and does nothing when
+   * the server already matches.
+   *
+   * @return Returns the amount of indexes created or changed.
+   */
+  public int reconcileIndexes() {
+    DBCollection dbCollection = getDBCollection();
+    List<DBObject> listInfo = dbCollection.getIndexInfo();
+    int changed = 0;
+    for (MongoIndex index : getIndexes()) {
+      DBObject info = null;
+      for (DBObject next : listInfo) {
+        if (index.hasKeys(next)) {
+          info = next;
+          break;
+        }
+      }
+      if (info == null) {
+        dbCollection.createIndex(index.getKeys(), index.createOptions());
+        changed++;
+      } else if (!index.isUniqueMatched(info)
+          || (index.isTTL() != (info.get("expireAfterSeconds") != null))) {
+        System.out.println(
+            "("
+                + dbCollection.getName()
+                + "): Rebuilding index "
+                + info.get("name")
+                + " to match "
+                + index
+                + ".");
+        dbCollection.dropIndex(info.get("name").toString());
+        dbCollection.createIndex(index.getKeys(), index.createOptions());
+        changed++;
+      } else if (!index.isExpireMatched(info)) {
+        // The expire time of a TTL index can be changed without rebuilding it.
+        DBObject modify =
+            new BasicDBObject("keyPattern", index.getKeys())
+                .append("expireAfterSeconds", index.getExpireAfterSeconds());
+        DBObject command =
+            new BasicDBObject("collMod", dbCollection.getName()).append("index", modify);
+        dbCollection.getDB().command(command).throwOnError();
+        changed++;
+      }
+    }
+    return changed;
+  }
+
   public void rename(String newName) {
     getDBCollection().rename(newName);
   }
@@ -16,8 +16,9 @@
 
 package jab.mongo;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,8 +29,10 @@ import com.mongodb.DB;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
 
+import jab.metrics.MetricsRegistry;
 import jab.mongo.transaction.MongoDatabaseTransactionWorker;
 import jab.mongo.transaction.MongoDocumentTransaction;
+import jab.mongo.transaction.MongoTransactionJournal;
 
 public abstract class MongoDatabase {
 
@@ -39,12 +42,23 @@ public abstract class MongoDatabase {
 
   private DB db;
   private MongoClient client = null;
-  private List<MongoDocumentTransaction> listTransactions;
+  private Queue<MongoDocumentTransaction> listTransactions;
+  private AtomicInteger transactionCount;
 
   private MongoDatabaseTransactionWorker worker;
+  /** The journal the worker appends transactions to before writing them. Null if not journaling. */
+  private volatile MongoTransactionJournal journal;
+
+  /** The metrics of the database, its transaction worker, and anything built on it. */
+  private final MetricsRegistry metrics = new MetricsRegistry();
+
+  /** The Logger to report problems with documents to. */
+  private volatile Logger logger = Logger.getLogger(MongoDatabase.class.getName());
 
   public MongoDatabase() {
-    listTransactions = new ArrayList<>();
+    listTransactions = new ConcurrentLinkedQueue<>();
+    transactionCount = new AtomicInteger();
+    metrics.gauge("mongo.queue.depth", this::getPendingTransactionCount);
     worker = new MongoDatabaseTransactionWorker(this);
   }
 
@@ -54,7 +68,9 @@ public abstract class MongoDatabase {
    * @param client The pre-connected MongoClient connection.
    */
   public MongoDatabase(MongoClient client) {
-    listTransactions = new ArrayList<>();
+    listTransactions = new ConcurrentLinkedQueue<>();
+    transactionCount = new AtomicInteger();
+    metrics.gauge("mongo.queue.depth", this::getPendingTransactionCount);
     worker = new MongoDatabaseTransactionWorker(this);
     connect(client);
   }
@@ -113,24 +129,49 @@ public abstract class MongoDatabase {
     this.client = client;
   }
 
+  /**
+   * Queues a transaction for the worker thread. This never blocks, and transactions are executed
+   * in the order they are added.
+   *
+   * <p>If the database has a journal, the transaction is not journaled yet when this returns. The
+   * worker appends it when it wakes, after the flush delay, and before each bulk write, so it is
+   * journaled within the flush delay, or once the bulk write in progress returns. Until then, it
+   * is only in memory, and is lost if the process is killed.
+   *
+   * @param transaction The MongoDocumentTransaction to queue.
+   */
   public void addTransaction(MongoDocumentTransaction transaction) {
-    // Run this operation outside of the main thread.
-    (new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                synchronized (listTransactions) {
-                  listTransactions.add(transaction);
-                }
-              }
-            }))
-        .start();
+    transaction.setQueuedNanos(System.nanoTime());
+    listTransactions.offer(transaction);
+    transactionCount.incrementAndGet();
+    // Wake the worker if it is waiting for work.
+    worker.signal();
   }
 
-  public int getTransactionQueueSize() {
-    synchronized (listTransactions) {
-      return listTransactions.size();
+  /**
+   * Takes the oldest queued transaction. This is called by the worker thread.
+   *
+   * @return Returns the oldest queued MongoDocumentTransaction, or null if the queue is empty.
+   */
+  public MongoDocumentTransaction pollTransaction() {
+    MongoDocumentTransaction transaction = listTransactions.poll();
+    if (transaction != null) {
+      transactionCount.decrementAndGet();
     }
+    return transaction;
+  }
+
+  public int getTransactionQueueSize() {
+    // The queue's own size() walks every node, so a separate count is kept.
+    return transactionCount.get();
+  }
+
+  /**
+   * @return Returns the amount of transactions not yet written: the ones queued, and the ones the
+   *     worker journaled but has not written yet.
+   */
+  public int getPendingTransactionCount() {
+    return transactionCount.get() + worker.getJournaledCount();
   }
 
   public MongoCollection createMongoCollection(String name) {
@@ -140,6 +181,8 @@ public abstract class MongoDatabase {
   public void shutDown() {
     onShutDown();
     setShutDown(true);
+    // Wake the worker so it can finish the queue and exit.
+    worker.signal();
   }
 
   public boolean isShutDown() {
@@ -150,10 +193,64 @@ public abstract class MongoDatabase {
     this.shutdown = flag;
   }
 
-  public List<MongoDocumentTransaction> getTransactions() {
+  public Queue<MongoDocumentTransaction> getTransactions() {
     return this.listTransactions;
   }
 
+  public MongoDatabaseTransactionWorker getWorker() {
+    return this.worker;
+  }
+
+  /**
+   * @return Returns the journal the worker appends transactions to before writing them, or null if
+   *     the database is not journaling.
+   */
+  public MongoTransactionJournal getJournal() {
+    return this.journal;
+  }
+
+  /**
+   * Sets the journal the worker appends transactions to before writing them. The journal must be
+   * open, and already replayed, so nothing left in it is committed before it is written. Only the
+   * worker appends to, and commits, the journal from then on.
+   *
+   * @param journal The MongoTransactionJournal to set. Null stops journaling.
+   */
+  public void setJournal(MongoTransactionJournal journal) {
+    this.journal = journal;
+    if (journal != null) {
+      metrics.gauge("mongo.journal.pending", journal::getPendingCount);
+    } else {
+      metrics.remove("mongo.journal.pending");
+    }
+  }
+
+  /**
+   * @return Returns the metrics of the database, its transaction worker, and anything built on
+   *     it.
+   */
+  public MetricsRegistry getMetrics() {
+    return this.metrics;
+  }
+
+  /** @return Returns the Logger to report problems with documents to. */
+  public Logger getLogger() {
+    return this.logger;
+  }
+
+  /**
+   * Sets the Logger to report problems with documents to, such as the Logger of the plug-in using
+   * the database.
+   *
+   * @param logger The Logger to set.
+   */
+  public void setLogger(Logger logger) {
+    if (logger == null) {
+      throw new IllegalArgumentException("Logger given is null.");
+    }
+    this.logger = logger;
+  }
+
   public DB getDatabase() {
     return this.db;
   }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo;
+
+import java.util.Iterator;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Declarative definition of an index on a MongoCollection. Indexes are added to a MongoCollection,
+ * and created or corrected on the server by 'MongoCollection.reconcileIndexes()'.
+ *
+ * @author Jab
+ */
+public class MongoIndex {
+
+  /** The keys of the index, in order, mapped to their direction or type. */
+  private final DBObject keys;
+  /** Flag for the index rejecting duplicate keys. */
+  private final boolean unique;
+  /** The time, in seconds, before documents expire. Negative if the index is not a TTL index. */
+  private final int expireAfterSeconds;
+
+  /**
+   * Main constructor.
+   *
+   * @param keys The keys of the index, in order, mapped to their direction or type.
+   * @param unique Flag for the index rejecting duplicate keys.
+   * @param expireAfterSeconds The time, in seconds, before documents expire. Negative if the index
+   *     is not a TTL index.
+   */
+  public MongoIndex(DBObject keys, boolean unique, int expireAfterSeconds) {
+    if (keys == null || keys.keySet().isEmpty()) {
+      throw new IllegalArgumentException("Index keys given are null or empty.");
+    }
+    this.keys = keys;
+    this.unique = unique;
+    this.expireAfterSeconds = expireAfterSeconds;
+  }
+
+  /**
+   * @param field The String field to index.
+   * @return Returns an ascending index on a field.
+   */
+  public static MongoIndex ascending(String field) {
+    return new MongoIndex(new BasicDBObject(field, 1), false, -1);
+  }
+
+  /**
+   * @param field The String field to index.
+   * @return Returns an ascending index on a field, rejecting duplicate values.
+   */
+  public static MongoIndex unique(String field) {
+    return new MongoIndex(new BasicDBObject(field, 1), true, -1);
+  }
+
+  /**
+   * @param field The String field to index. This should hold Dates.
+   * @param expireAfterSeconds The time, in seconds, before documents expire.
+   * @return Returns a TTL index on a field.
+   */
+  public static MongoIndex ttl(String field, int expireAfterSeconds) {
+    if (expireAfterSeconds < 0) {
+      throw new IllegalArgumentException("Expire time cannot be negative.");
+    }
+    return new MongoIndex(new BasicDBObject(field, 1), false, expireAfterSeconds);
+  }
+
+  /** @return Returns the options DBObject to create the index with. */
+  public DBObject createOptions() {
+    DBObject options = new BasicDBObject();
+    if (unique) {
+      options.put("unique", true);
+    }
+    if (isTTL()) {
+      options.put("expireAfterSeconds", expireAfterSeconds);
+    }
+    return options;
+  }
+
+  /**
+   * @param info The DBObject describing an existing index, as listed by the server.
+   * @return Returns true if the existing index has the same keys as this index.
+   */
+  public boolean hasKeys(DBObject info) {
+    Object other = info.get("key");
+    if (!(other instanceof DBObject)) {
+      return false;
+    }
+    // Key order matters for compound indexes.
+    Iterator<String> iterator = ((DBObject) other).keySet().iterator();
+    for (String key : keys.keySet()) {
+      if (!iterator.hasNext() || !key.equals(iterator.next())) {
+        return false;
+      }
+      if (!valuesMatch(keys.get(key), ((DBObject) other).get(key))) {
+        return false;
+      }
+    }
+    return !iterator.hasNext();
+  }
+
+  /**
+   * @param info The DBObject describing an existing index with the same keys.
+   * @return Returns true if the existing index rejects duplicates the same way as this index.
+   */
+  public boolean isUniqueMatched(DBObject info) {
+    // Indexes created by older tools may list the flag as a number.
+    Object other = info.get("unique");
+    boolean otherUnique =
+        Boolean.TRUE.equals(other) || (other instanceof Number && ((Number) other).intValue() != 0);
+    return unique == otherUnique;
+  }
+
+  /**
+   * @param info The DBObject describing an existing index with the same keys.
+   * @return Returns true if the existing index expires documents the same way as this index.
+   */
+  public boolean isExpireMatched(DBObject info) {
+    Object other = info.get("expireAfterSeconds");
+    if (!isTTL()) {
+      return other == null;
+    }
+    return other instanceof Number && ((Number) other).longValue() == expireAfterSeconds;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>The server may list key directions as doubles, so numbers are compared by value.
+   *
+   * @param value The key value of this index.
+   * @param other The key value of the existing index.
+   * @return Returns true if the values match.
+   */
+  private static boolean valuesMatch(Object value, Object other) {
+    if (value instanceof Number && other instanceof Number) {
+      return ((Number) value).doubleValue() == ((Number) other).doubleValue();
+    }
+    return value != null && value.equals(other);
+  }
+
+  /** @return Returns the keys of the index. */
+  public DBObject getKeys() {
+    return this.keys;
+  }
+
+  /** @return Returns true if the index rejects duplicate keys. */
+  public boolean isUnique() {
+    return this.unique;
+  }
+
+  /** @return Returns true if the index expires documents. */
+  public boolean isTTL() {
+    return this.expireAfterSeconds >= 0;
+  }
+
+  /**
+   * @return Returns the time, in seconds, before documents expire. Negative if the index is not a
+   *     TTL index.
+   */
+  public int getExpireAfterSeconds() {
+    return this.expireAfterSeconds;
+  }
+
+  @Override
+  public String toString() {
+    return keys.toString();
+  }
+}
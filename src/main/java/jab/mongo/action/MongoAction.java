@@ -17,7 +17,9 @@
 package jab.mongo.action;
 
 import java.util.Date;
+import java.util.List;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.DBObject;
 
 import jab.mongo.MongoCollection;
@@ -27,18 +29,51 @@ import jab.mongo.document.MongoUniqueDocument;
  * MongoDocument class to store and transmit actions to other servers concurrently running the same
  * data.
  *
+ * <p>Arguments are stored as a BSON array, so they can hold any BSON value, such as nested lists of
+ * nodes, and are read back without parsing. The 'argsVersion' field records the encoding. Actions
+ * written with the original encoding, a comma-joined String, are still read.
+ *
+ * <p>Servers older than the array encoding misread it, so actions are written with the original
+ * encoding until the write version is raised, which should be done once every server reads both.
+ *
  * @author Jab
  */
 public abstract class MongoAction extends MongoUniqueDocument implements Runnable {
 
+  /** The version of the original argument encoding: one comma-joined String. */
+  public static final int ARGS_VERSION_JOINED = 1;
+  /** The version of the current argument encoding: a BSON array of values. */
+  public static final int ARGS_VERSION = 2;
+
+  /** The argument encoding used when saving actions. */
+  private static volatile int writeVersion = ARGS_VERSION_JOINED;
+
   private String type;
   private String[] args;
+  /** The typed arguments, as stored in the BSON array. */
+  private Object[] values;
   private Date date;
+  /** Called once a save of the action is written. Null if nothing is waiting for it. */
+  private volatile Runnable writtenListener;
 
   public MongoAction(MongoCollection collection, String type, String[] args) {
     super(collection);
     setType(type);
-    setArguments(args);
+    setValues(args.clone());
+  }
+
+  /**
+   * New constructor with typed arguments.
+   *
+   * @param collection The MongoCollection storing the action.
+   * @param type The String type of the action.
+   * @param values The arguments. Each must be null or a value BSON can encode, such as a String,
+   *     Number, Boolean, Date, List or DBObject.
+   */
+  public MongoAction(MongoCollection collection, String type, Object[] values) {
+    super(collection);
+    setType(type);
+    setValues(values.clone());
   }
 
   public MongoAction(MongoCollection collection, DBObject object) {
@@ -48,43 +83,156 @@ public abstract class MongoAction extends MongoUniqueDocument implements Runnabl
   @Override
   public void onLoad(DBObject object) {
     setType(object.get("type").toString());
-    setArguments(object.get("args").toString().split(","));
+    Object args = object.get("args");
+    Object version = object.get("argsVersion");
+    int argsVersion =
+        version instanceof Number ? ((Number) version).intValue() : ARGS_VERSION_JOINED;
+    if (argsVersion > ARGS_VERSION) {
+      throw new IllegalStateException(
+          "Unsupported argument encoding for action: " + argsVersion + ".");
+    }
+    if (args instanceof List) {
+      setValues(((List<?>) args).toArray());
+    } else {
+      setValues(loadJoinedArguments(args.toString()));
+    }
     date = (Date) object.get("timestamp");
   }
 
   @Override
   public void onSave(DBObject object) {
     object.put("type", getType());
-    object.put("args", saveArguments());
+    if (writeVersion == ARGS_VERSION_JOINED) {
+      // Older servers read neither the array nor the version field.
+      object.put("args", saveJoinedArguments(args));
+    } else {
+      BasicDBList list = new BasicDBList();
+      for (Object value : values) {
+        list.add(value);
+      }
+      object.put("args", list);
+      object.put("argsVersion", ARGS_VERSION);
+    }
     if (date == null) {
       date = new Date();
     }
     object.put("timestamp", date);
   }
 
-  private void setArguments(String[] args) {
+  /**
+   * (Private Method)
+   *
+   * <p>Sets the typed arguments, and the String form of each.
+   *
+   * @param values The typed arguments to set.
+   */
+  private void setValues(Object[] values) {
+    this.values = values;
+    String[] args = new String[values.length];
+    for (int index = 0; index < values.length; index++) {
+      Object value = values[index];
+      args[index] = value == null ? null : value.toString();
+    }
     this.args = args;
-    for (int index = 0; index < args.length; index++) {
-      String arg = args[index];
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Reads arguments stored with the original encoding. The arguments are joined with commas,
+   * with "_null" and "_empty" standing in for null and empty arguments.
+   *
+   * @param joined The joined String of arguments.
+   * @return Returns the arguments.
+   */
+  private static String[] loadJoinedArguments(String joined) {
+    // Count the arguments first, so the array is allocated once.
+    int count = 1;
+    for (int index = joined.indexOf(','); index != -1; index = joined.indexOf(',', index + 1)) {
+      count++;
+    }
+    String[] args = new String[count];
+    int start = 0;
+    for (int index = 0; index < count; index++) {
+      int end = joined.indexOf(',', start);
+      if (end == -1) {
+        end = joined.length();
+      }
+      String arg = joined.substring(start, end);
       if (arg.equals("_null")) {
-        args[index] = (String) null;
+        arg = null;
       } else if (arg.equals("_empty")) {
-        args[index] = "";
+        arg = "";
       }
+      args[index] = arg;
+      start = end + 1;
     }
+    return args;
   }
 
-  private String saveArguments() {
-    String args = "";
-    for (String arg : getArguments()) {
+  /**
+   * (Private Method)
+   *
+   * <p>Writes arguments with the original encoding. Typed arguments are written as their String
+   * form.
+   *
+   * @param args The arguments to write.
+   * @return Returns the joined String of arguments.
+   */
+  private static String saveJoinedArguments(String[] args) {
+    StringBuilder builder = new StringBuilder();
+    for (int index = 0; index < args.length; index++) {
+      String arg = args[index];
       if (arg == null) {
         arg = "_null";
       } else if (arg.isEmpty()) {
         arg = "_empty";
       }
-      args += arg + ",";
+      if (index > 0) {
+        builder.append(',');
+      }
+      builder.append(arg);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Sets the argument encoding used when saving actions. Keep ARGS_VERSION_JOINED while any server
+   * sharing the database runs a version that only reads it.
+   *
+   * @param version ARGS_VERSION_JOINED or ARGS_VERSION.
+   * @throws IllegalArgumentException Thrown if the version is not supported.
+   */
+  public static void setWriteVersion(int version) {
+    if (version != ARGS_VERSION_JOINED && version != ARGS_VERSION) {
+      throw new IllegalArgumentException(
+          "Unsupported argument encoding for action: " + version + ".");
+    }
+    writeVersion = version;
+  }
+
+  /** @return Returns the argument encoding used when saving actions. */
+  public static int getWriteVersion() {
+    return writeVersion;
+  }
+
+  @Override
+  public void onWritten() {
+    Runnable listener = this.writtenListener;
+    if (listener != null) {
+      listener.run();
     }
-    return args.substring(0, args.length() - 1);
+  }
+
+  /**
+   * (Package-Private Method)
+   *
+   * <p>Sets what to call on the transaction worker thread once a save of the action is written.
+   *
+   * @param listener The Runnable to call. Null calls nothing.
+   */
+  void setWrittenListener(Runnable listener) {
+    this.writtenListener = listener;
   }
 
   public void print() {
@@ -98,10 +246,27 @@ public abstract class MongoAction extends MongoUniqueDocument implements Runnabl
     System.out.println("MongoGangAction:\n\tType: " + type + "\n\tArguments:\n\t" + argsAsString);
   }
 
+  /**
+   * @return Returns true if running the action needs the server's main thread. Received actions
+   *     that do are queued for the main thread, and the rest run on the thread that received them.
+   *     Override this to return false for actions that only touch thread-safe state.
+   */
+  public boolean requiresMainThread() {
+    return true;
+  }
+
   public String[] getArguments() {
     return this.args;
   }
 
+  /**
+   * @return Returns the typed arguments, as stored in the BSON array. Arguments read from the
+   *     original encoding are Strings.
+   */
+  public Object[] getValues() {
+    return this.values;
+  }
+
   public String getType() {
     return this.type;
   }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.action;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Executor that runs tasks on the server's main thread, a limited amount of time per tick.
+ *
+ * <p>Tasks can be added from any thread. Every tick, queued tasks are ran in the order they were
+ * added until the queue is empty or the tick's budget is spent. Tasks left over wait for the next
+ * tick, so a burst of received actions is spread over several ticks instead of lagging one.
+ *
+ * @author Jab
+ */
+public class MongoActionApplyQueue extends BukkitRunnable implements Executor {
+
+  /** The default time, in milliseconds, spent running tasks per tick. */
+  public static final long DEFAULT_BUDGET = 2L;
+
+  /** The queued tasks. */
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  /** The time, in nanoseconds, spent running tasks per tick. */
+  private volatile long budgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET);
+
+  @Override
+  public void execute(Runnable task) {
+    queue.offer(task);
+  }
+
+  @Override
+  public void run() {
+    long start = System.nanoTime();
+    long budgetNanos = this.budgetNanos;
+    Runnable task;
+    // At least one task runs every tick, so a task longer than the budget cannot stall the queue.
+    do {
+      task = queue.poll();
+      if (task == null) {
+        break;
+      }
+      try {
+        task.run();
+      } catch (Exception e) {
+        System.err.println("Failed to run queued task:");
+        e.printStackTrace();
+      }
+    } while (System.nanoTime() - start < budgetNanos);
+  }
+
+  /**
+   * Starts running queued tasks on the main thread every tick.
+   *
+   * @param plugin The Plugin running the queue.
+   */
+  public void start(Plugin plugin) {
+    runTaskTimer(plugin, 1L, 1L);
+  }
+
+  /** Stops running queued tasks. Tasks still queued are dropped. */
+  public void stop() {
+    cancel();
+    queue.clear();
+  }
+
+  /** @return Returns the time, in milliseconds, spent running tasks per tick. */
+  public long getBudget() {
+    return TimeUnit.NANOSECONDS.toMillis(this.budgetNanos);
+  }
+
+  /**
+   * Sets the time, in milliseconds, spent running tasks per tick.
+   *
+   * @param budget The budget to set.
+   */
+  public void setBudget(long budget) {
+    if (budget < 1) {
+      throw new IllegalArgumentException("Budget must be at least 1 millisecond.");
+    }
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budget);
+  }
+}
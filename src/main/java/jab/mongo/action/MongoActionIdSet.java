@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.action;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent set of the Unique IDs of MongoActions dispatched by this service, so they can be
+ * skipped when they are received back.
+ *
+ * <p>An ID is held without expiring until the write of its action is confirmed, as the action
+ * cannot be received back before it is written, however long the write is held up. From then on,
+ * the ID expires after a time to live. An action that never comes back, such as one removed by the
+ * collection's TTL index before it was read, therefore stops taking memory once it expires. The
+ * set also holds no more than a fixed amount of IDs, dropping the oldest first. Membership checks
+ * are O(1).
+ *
+ * @author Jab
+ */
+public class MongoActionIdSet {
+
+  /** The default maximum amount of IDs held. */
+  public static final int DEFAULT_CAPACITY = 65536;
+
+  /** The IDs held, mapped to their entries. */
+  private final Map<UUID, Entry> mapEntries = new ConcurrentHashMap<>();
+  /** The entries in the order they were added. */
+  private final Queue<Entry> queue = new ArrayDeque<>();
+  /** The maximum amount of IDs held. */
+  private final int capacity;
+  /** The time to live, in nanoseconds, of each ID once its write is confirmed. */
+  private volatile long ttlNanos;
+
+  /**
+   * Main constructor.
+   *
+   * @param ttlSeconds The time to live, in seconds, of each ID once its write is confirmed.
+   * @param capacity The maximum amount of IDs held.
+   */
+  public MongoActionIdSet(long ttlSeconds, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1.");
+    }
+    this.capacity = capacity;
+    setTimeToLive(ttlSeconds);
+  }
+
+  /**
+   * Adds an ID to the set, expiring any IDs past their time to live. The ID does not expire until
+   * 'confirm(UUID)' is called for it.
+   *
+   * @param id The Unique ID to add.
+   */
+  public void add(UUID id) {
+    long now = System.nanoTime();
+    Entry entry = new Entry(id);
+    mapEntries.put(id, entry);
+    synchronized (queue) {
+      queue.offer(entry);
+      // Confirmed entries all share the same time to live, so they mostly expire in the order they
+      // were added. One still waiting for its write holds back the ones behind it, which is only a
+      // matter of memory, as each entry checks its own expiry.
+      Entry head;
+      while ((head = queue.peek()) != null && (head.isExpired(now) || queue.size() > capacity)) {
+        queue.poll();
+        // An ID added again since has a newer entry, which is kept.
+        mapEntries.remove(head.id, head);
+      }
+    }
+  }
+
+  /**
+   * Starts the time to live of an ID, once the write of its action is confirmed. Nothing happens
+   * if the ID is no longer in the set, such as when the action was already received back.
+   *
+   * @param id The Unique ID to confirm.
+   */
+  public void confirm(UUID id) {
+    Entry entry = mapEntries.get(id);
+    if (entry != null) {
+      entry.confirm(System.nanoTime() + ttlNanos);
+    }
+  }
+
+  /**
+   * Removes an ID from the set.
+   *
+   * @param id The Unique ID to remove.
+   * @return Returns true if the ID was in the set and had not expired.
+   */
+  public boolean remove(UUID id) {
+    Entry entry = mapEntries.remove(id);
+    // The entry stays queued until it reaches the head. It no longer holds the ID in the set.
+    return entry != null && !entry.isExpired(System.nanoTime());
+  }
+
+  /** Removes every ID from the set. */
+  public void clear() {
+    synchronized (queue) {
+      queue.clear();
+      mapEntries.clear();
+    }
+  }
+
+  /** @return Returns the time to live, in seconds, of each ID once its write is confirmed. */
+  public long getTimeToLive() {
+    return TimeUnit.NANOSECONDS.toSeconds(this.ttlNanos);
+  }
+
+  /**
+   * Sets the time to live, in seconds, of each ID confirmed from now on.
+   *
+   * @param ttlSeconds The time to live to set.
+   */
+  public void setTimeToLive(long ttlSeconds) {
+    if (ttlSeconds < 1) {
+      throw new IllegalArgumentException("Time to live must be at least 1 second.");
+    }
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+  }
+
+  /** @return Returns the maximum amount of IDs held. */
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /** An ID with the time it expires. */
+  private static class Entry {
+
+    /** The Unique ID. */
+    private final UUID id;
+    /** The System.nanoTime() the ID expires at. Only set once confirmed. */
+    private volatile long expires;
+    /** Flag for the write of the action being confirmed, so the ID can expire. */
+    private volatile boolean confirmed;
+
+    /**
+     * Main constructor.
+     *
+     * @param id The Unique ID.
+     */
+    private Entry(UUID id) {
+      this.id = id;
+    }
+
+    /**
+     * @param expires The System.nanoTime() the ID expires at.
+     */
+    private void confirm(long expires) {
+      // Set the time first, so a reader that sees the flag also sees the time.
+      this.expires = expires;
+      this.confirmed = true;
+    }
+
+    /**
+     * @param now The current System.nanoTime().
+     * @return Returns true if the ID is confirmed and past its time to live.
+     */
+    private boolean isExpired(long now) {
+      return confirmed && expires - now <= 0;
+    }
+  }
+}
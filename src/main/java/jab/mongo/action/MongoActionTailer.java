@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.action;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * Runnable that follows a capped DBCollection with a tailable cursor, handing every document
+ * inserted to a Consumer as soon as the server returns it.
+ *
+ * <p>The server kills a tailable cursor that returns no document when it is opened, so the cursor
+ * is opened without a query, and documents older than the last timestamp handled are skipped on
+ * the client. An empty collection is seeded with a sentinel document, which is never handed to
+ * the Consumer, so the cursor stays open and waits for the first document.
+ *
+ * <p>The tailer runs on its own thread. If the cursor dies, such as when the connection is lost,
+ * the tailer waits for the retry delay and opens a new cursor, resuming from the timestamp of the
+ * last document handled.
+ *
+ * @author Jab
+ */
+public class MongoActionTailer implements Runnable {
+
+  /** The default time, in milliseconds, to wait before re-opening a dead cursor. */
+  public static final long DEFAULT_RETRY_DELAY = 1000L;
+
+  /** The field marking the sentinel document seeded into an empty collection. */
+  public static final String FIELD_SENTINEL = "sentinel";
+
+  /** The capped DBCollection to follow. */
+  private final DBCollection dbCollection;
+  /** The Consumer handling each document. This is called on the tailer's thread. */
+  private final Consumer<DBObject> handler;
+  /** The time, in milliseconds, to wait before re-opening a dead cursor. */
+  private final long retryDelay;
+  /** The Unique IDs of the documents handled with the last timestamp, to skip them on resume. */
+  private final Set<Object> setLastIds = new HashSet<>();
+  /** The timestamp of the last document handled. Documents from this time onward are followed. */
+  private Date timeLast;
+  /** The cursor currently open. Null while no cursor is open. */
+  private volatile DBCursor cursor;
+  /** The thread running the tailer. Null until the tailer starts. */
+  private volatile Thread thread;
+  /** Flag for the tailer being stopped. */
+  private volatile boolean stopped;
+  /** Flag for the collection having been checked for a document to open cursors at. */
+  private boolean seeded;
+
+  /**
+   * Main constructor.
+   *
+   * @param dbCollection The capped DBCollection to follow.
+   * @param handler The Consumer handling each document, called on the tailer's thread.
+   * @param timeStart The time, in milliseconds, of the first documents to handle.
+   * @param retryDelay The time, in milliseconds, to wait before re-opening a dead cursor.
+   */
+  public MongoActionTailer(
+      DBCollection dbCollection, Consumer<DBObject> handler, long timeStart, long retryDelay) {
+    if (!dbCollection.isCapped()) {
+      throw new IllegalArgumentException(
+          "Collection is not capped: \"" + dbCollection.getName() + "\".");
+    }
+    if (retryDelay < 0) {
+      throw new IllegalArgumentException("Retry delay cannot be negative.");
+    }
+    this.dbCollection = dbCollection;
+    this.handler = handler;
+    this.timeLast = new Date(timeStart);
+    this.retryDelay = retryDelay;
+  }
+
+  @Override
+  public void run() {
+    this.thread = Thread.currentThread();
+    while (!stopped) {
+      try {
+        follow();
+      } catch (MongoException e) {
+        // A cursor closed by stop() fails on its next read. That is expected.
+        if (!stopped) {
+          System.err.println(
+              "Lost tailable cursor on \"" + dbCollection.getName() + "\". Retrying...");
+          e.printStackTrace();
+        }
+      } catch (IllegalStateException e) {
+        if (!stopped) {
+          e.printStackTrace();
+        }
+      }
+      if (!stopped && retryDelay > 0) {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(retryDelay));
+      }
+    }
+    this.thread = null;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Opens a tailable cursor from the last timestamp handled, and hands documents to the handler
+   * until the cursor dies or the tailer is stopped.
+   */
+  private void follow() {
+    if (!seeded) {
+      seed();
+      seeded = true;
+    }
+    // Documents from before the cursor opens are read again, and skipped here.
+    Date timeOpen = timeLast;
+    DBCursor cursor =
+        dbCollection
+            .find()
+            .addOption(Bytes.QUERYOPTION_TAILABLE)
+            .addOption(Bytes.QUERYOPTION_AWAITDATA);
+    this.cursor = cursor;
+    try {
+      // With AWAITDATA, hasNext() waits on the server for new documents, and returns false once
+      // the cursor is dead.
+      while (!stopped && cursor.hasNext()) {
+        DBObject object = cursor.next();
+        if (object.containsField(FIELD_SENTINEL) || isBefore(object, timeOpen) || skip(object)) {
+          continue;
+        }
+        try {
+          handler.accept(object);
+        } catch (Exception e) {
+          System.err.println("Failed to handle tailed document:");
+          e.printStackTrace();
+        }
+      }
+    } finally {
+      this.cursor = null;
+      cursor.close();
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Inserts the sentinel document if the collection is empty, so cursors have a document to
+   * open at.
+   */
+  private void seed() {
+    if (dbCollection.findOne() == null) {
+      dbCollection.insert(new BasicDBObject(FIELD_SENTINEL, true));
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param object The document read from the cursor.
+   * @param time The Date to compare with.
+   * @return Returns true if the timestamp of the document is before the time given.
+   */
+  private static boolean isBefore(DBObject object, Date time) {
+    Object timestamp = object.get("timestamp");
+    return timestamp instanceof Date && ((Date) timestamp).before(time);
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Records a document as handled. Re-opened cursors start at the last timestamp inclusively,
+   * so documents already handled with that timestamp are skipped.
+   *
+   * @param object The document read from the cursor.
+   * @return Returns true if the document was already handled.
+   */
+  private boolean skip(DBObject object) {
+    Object timestamp = object.get("timestamp");
+    Object id = object.get("_id");
+    if (!(timestamp instanceof Date)) {
+      return false;
+    }
+    Date date = (Date) timestamp;
+    int compare = date.compareTo(timeLast);
+    if (compare < 0) {
+      // Written with an earlier clock than the last document. It still has not been handled.
+      return false;
+    }
+    if (compare > 0) {
+      timeLast = date;
+      setLastIds.clear();
+    }
+    return !setLastIds.add(id);
+  }
+
+  /** Stops the tailer, closing the open cursor. */
+  public void stop() {
+    stopped = true;
+    DBCursor cursor = this.cursor;
+    if (cursor != null) {
+      cursor.close();
+    }
+    Thread thread = this.thread;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /** @return Returns true if the tailer has been stopped. */
+  public boolean isStopped() {
+    return this.stopped;
+  }
+
+  /** @return Returns the capped DBCollection followed. */
+  public DBCollection getDBCollection() {
+    return this.dbCollection;
+  }
+}
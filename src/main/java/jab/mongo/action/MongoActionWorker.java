@@ -16,10 +16,10 @@
 
 package jab.mongo.action;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bukkit.plugin.Plugin;
 import org.bukkit.scheduler.BukkitRunnable;
@@ -28,35 +28,71 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.QueryBuilder;
 
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.metrics.jfr.MongoActionPollEvent;
 import jab.mongo.MongoCollection;
+import jab.mongo.MongoIndex;
 
+/**
+ * Worker that receives MongoActions dispatched by other services sharing the MongoCollection.
+ *
+ * <p>Actions are delivered in one of two modes. In push mode, the collection is capped and a
+ * MongoActionTailer follows it with a tailable cursor on its own thread, so actions arrive as soon
+ * as they are written. In polling mode, the worker runs as an asynchronous BukkitTask, querying the
+ * collection for new actions every {@link #DELAY_TICKS} ticks. Polling is used when the collection
+ * already exists and is not capped.
+ *
+ * <p>Neither mode touches MongoDB on the server's main thread. Actions that require the main thread
+ * are handed to a MongoActionApplyQueue, which runs them within a time budget every tick.
+ *
+ * @author Jab
+ */
 public abstract class MongoActionWorker<A extends MongoAction> extends BukkitRunnable
     implements Runnable {
 
+  /** The default size, in bytes, of the capped collection created for push mode. */
+  public static final long DEFAULT_CAPPED_SIZE = 1048576L;
+
   private int expireSeconds = 20;
 
   private static final long DELAY_TICKS = 200L;
 
-  private List<UUID> listAuthoredActions;
+  /**
+   * The IDs of actions dispatched by this service. Each one expires with the collection's TTL
+   * index, counted from when the action is written rather than dispatched.
+   */
+  private MongoActionIdSet authoredActions;
 
   private MongoCollection collection;
 
   private long timeLast = -1L;
 
+  /** The size, in bytes, of the capped collection created for push mode. */
+  private long cappedSize = DEFAULT_CAPPED_SIZE;
+  /** The MongoActionTailer following the collection in push mode. Null in polling mode. */
+  private volatile MongoActionTailer tailer;
+  /** The queue running actions on the main thread. Null unless started with a Plugin. */
+  private MongoActionApplyQueue applyQueue;
+  /** The time, in milliseconds, spent running actions on the main thread per tick. */
+  private long applyBudget = MongoActionApplyQueue.DEFAULT_BUDGET;
+  /** The Executor running actions that require the main thread. */
+  private volatile Executor mainThreadExecutor;
+  /** Flag for a poll being in progress, so slow polls do not overlap. */
+  private final AtomicBoolean polling = new AtomicBoolean();
+
   public MongoActionWorker(MongoCollection collection) {
     setMongoCollection(collection);
-
-    listAuthoredActions = new ArrayList<>();
+    authoredActions = new MongoActionIdSet(expireSeconds, MongoActionIdSet.DEFAULT_CAPACITY);
   }
 
   private void assertIndex() {
-    DBObject key = new BasicDBObject("timestamp", 1);
-    DBObject val = new BasicDBObject("expireAfterSeconds", expireSeconds);
-    DBCollection dbCollection = getMongoCollection().getDBCollection();
-    dbCollection.dropIndexes();
-    dbCollection.createIndex(key, val);
+    // Only the TTL index is reconciled. Other indexes on the collection are kept.
+    MongoCollection collection = getMongoCollection();
+    collection.addIndex(MongoIndex.ttl("timestamp", expireSeconds));
+    collection.reconcileIndexes();
   }
 
   private DBObject createQuery() {
@@ -68,53 +104,307 @@ public abstract class MongoActionWorker<A extends MongoAction> extends BukkitRun
 
   @Override
   public void run() {
-    long timeNow = System.currentTimeMillis();
-    DBCursor cursor = collection.find(createQuery());
-    while (cursor.hasNext()) {
-      A action = null;
+    // Asynchronous repeating tasks are not held back by a previous run that is still going.
+    if (!polling.compareAndSet(false, true)) {
+      return;
+    }
+    MongoActionPollEvent event = null;
+    if (FlightRecorderSupport.AVAILABLE) {
+      event = new MongoActionPollEvent();
+      event.begin();
+    }
+    long start = System.nanoTime();
+    int actions = 0;
+    try {
+      long timeNow = System.currentTimeMillis();
+      DBCursor cursor = collection.find(createQuery());
       try {
-        action = createActionDocument(getMongoCollection(), cursor.next());
-      } catch (Exception e) {
-        System.err.println("Failed to create Action (Constructor):");
-        e.printStackTrace();
-        continue;
+        while (cursor.hasNext()) {
+          actions++;
+          A action = createAction(cursor.next());
+          if (action != null) {
+            execute(action);
+          }
+        }
+      } finally {
+        cursor.close();
       }
-      // If the UUID of the MongoAction is present in this list, then skip
-      // over it. MongoActions are only executed on concurrent services.
-      if (listAuthoredActions.remove(action.getUniqueId())) {
-        continue;
+      timeLast = timeNow;
+    } catch (MongoException e) {
+      System.err.println("Failed to poll MongoActions:");
+      e.printStackTrace();
+    } finally {
+      if (event != null) {
+        event.record(getMongoCollection().getDBCollection().getName(), actions);
       }
+      getMongoCollection()
+          .getDatabase()
+          .getMetrics()
+          .histogram("actions.poll.nanos")
+          .record(System.nanoTime() - start);
+      polling.set(false);
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Creates the MongoAction stored in a DBObject.
+   *
+   * @param object The DBObject storing the MongoAction.
+   * @return Returns the MongoAction, or null if it could not be created.
+   */
+  private A createAction(DBObject object) {
+    try {
+      return createActionDocument(getMongoCollection(), object);
+    } catch (Exception e) {
+      System.err.println("Failed to create Action (Constructor):");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Runs a received MongoAction, unless it was dispatched by this service. Actions that require
+   * the main thread are handed to the main thread Executor. Others run on the calling thread.
+   *
+   * @param action The MongoAction to run.
+   */
+  private void execute(A action) {
+    // If the UUID of the MongoAction is present in this set, then skip
+    // over it. MongoActions are only executed on concurrent services.
+    if (authoredActions.remove(action.getUniqueId())) {
+      return;
+    }
+    Executor executor = this.mainThreadExecutor;
+    if (executor != null && action.requiresMainThread()) {
+      executor.execute(() -> runAction(action));
+    } else {
+      runAction(action);
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Runs a MongoAction, reporting any failure.
+   *
+   * @param action The MongoAction to run.
+   */
+  private void runAction(A action) {
+    try {
+      action.run();
+    } catch (Exception e) {
+      System.err.println("Failed to run Action:");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Starts the worker in push mode if the collection is, or can be created as, a capped
+   * collection. Otherwise, the worker is started as a polling BukkitTask.
+   *
+   * @param plugin The Plugin running the worker. Actions are ran on the main thread.
+   */
+  public void start(Plugin plugin) {
+    if (!startPush(startApplyQueue(plugin))) {
+      System.err.println(
+          "Collection \""
+              + getMongoCollection().getDBCollection().getName()
+              + "\" is not capped. Polling for MongoActions instead.");
+      startBukkit(plugin);
+    }
+  }
+
+  /**
+   * Starts a MongoActionTailer following the collection on a dedicated thread. If the collection
+   * does not exist, it is created as a capped collection. Received actions are created on the
+   * tailer's thread. Actions that require the main thread are ran with the given Executor, and the
+   * rest are ran on the tailer's thread.
+   *
+   * <p>This does not need a running server, so the worker can be tested against any local mongod
+   * with an Executor such as 'Runnable::run'.
+   *
+   * @param executor The Executor running actions that require the main thread.
+   * @return Returns true if push mode started. Returns false if the collection exists and is not
+   *     capped.
+   */
+  public boolean startPush(Executor executor) {
+    if (tailer != null) {
+      throw new IllegalStateException("The worker is already started in push mode.");
+    }
+    DBCollection dbCollection = getMongoCollection().getDBCollection();
+    if (!assertCapped(dbCollection)) {
+      return false;
+    }
+    this.mainThreadExecutor = executor;
+    // Capped collections are bounded by size, so no TTL index is needed.
+    MongoActionTailer tailer =
+        new MongoActionTailer(
+            dbCollection,
+            object -> {
+              A action = createAction(object);
+              if (action != null) {
+                execute(action);
+              }
+            },
+            System.currentTimeMillis(),
+            MongoActionTailer.DEFAULT_RETRY_DELAY);
+    this.tailer = tailer;
+    Thread thread = new Thread(tailer, "MongoAction Tailer (" + dbCollection.getName() + ")");
+    thread.setDaemon(true);
+    thread.start();
+    return true;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Creates the collection as a capped collection if it does not exist.
+   *
+   * @param dbCollection The DBCollection of the worker.
+   * @return Returns true if the collection is capped.
+   */
+  private boolean assertCapped(DBCollection dbCollection) {
+    if (dbCollection.isCapped()) {
+      return true;
+    }
+    String name = dbCollection.getName();
+    if (!dbCollection.getDB().collectionExists(name)) {
+      DBObject options = new BasicDBObject("capped", true).append("size", cappedSize);
       try {
-        action.run();
-      } catch (Exception e) {
-        System.err.println("Failed to run Action:");
-        e.printStackTrace();
-        continue;
+        dbCollection.getDB().createCollection(name, options);
+      } catch (MongoException e) {
+        // Another service may have created the collection first.
+        if (!dbCollection.getDB().collectionExists(name)) {
+          throw e;
+        }
       }
     }
-    cursor.close();
-    timeLast = timeNow;
+    return dbCollection.isCapped();
   }
 
   /**
-   * Starts a BukkitTask, running the worker.
+   * Starts an asynchronous BukkitTask, polling the collection with the worker. Actions that require
+   * the main thread are ran through the worker's MongoActionApplyQueue.
    *
-   * @param plugin
-   * @return Returns the assigned BukkitTask instance of the worker.
+   * @param plugin The Plugin running the worker.
    */
   public void startBukkit(Plugin plugin) {
+    // start(Plugin) may already have started the queue before falling back to polling.
+    MongoActionApplyQueue applyQueue = this.applyQueue;
+    if (applyQueue == null) {
+      applyQueue = startApplyQueue(plugin);
+    }
+    this.mainThreadExecutor = applyQueue;
     assertIndex();
     timeLast = System.currentTimeMillis();
-    runTaskTimer(plugin, 0L, DELAY_TICKS);
+    runTaskTimerAsynchronously(plugin, 0L, DELAY_TICKS);
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Creates and starts the queue running actions on the main thread.
+   *
+   * @param plugin The Plugin running the queue.
+   * @return Returns the started MongoActionApplyQueue.
+   */
+  private MongoActionApplyQueue startApplyQueue(Plugin plugin) {
+    MongoActionApplyQueue applyQueue = new MongoActionApplyQueue();
+    applyQueue.setBudget(applyBudget);
+    applyQueue.start(plugin);
+    this.applyQueue = applyQueue;
+    return applyQueue;
   }
 
-  /** Stops the BukkitTask running, if one is running. */
+  /** Stops the BukkitTask running, or the MongoActionTailer in push mode. */
   public void stopBukkit() {
-    cancel();
-    listAuthoredActions.clear();
+    MongoActionTailer tailer = this.tailer;
+    if (tailer != null) {
+      tailer.stop();
+      this.tailer = null;
+    } else {
+      cancel();
+    }
+    if (applyQueue != null) {
+      applyQueue.stop();
+      applyQueue = null;
+    }
+    this.mainThreadExecutor = null;
+    authoredActions.clear();
     timeLast = -1L;
   }
 
+  /**
+   * @return Returns the time, in milliseconds, spent running actions on the main thread per tick.
+   */
+  public long getApplyBudget() {
+    return this.applyBudget;
+  }
+
+  /**
+   * Sets the time, in milliseconds, spent running actions on the main thread per tick. Actions left
+   * over run on the following ticks.
+   *
+   * @param applyBudget The budget to set.
+   */
+  public void setApplyBudget(long applyBudget) {
+    if (applyBudget < 1) {
+      throw new IllegalArgumentException("Apply budget must be at least 1 millisecond.");
+    }
+    this.applyBudget = applyBudget;
+    MongoActionApplyQueue applyQueue = this.applyQueue;
+    if (applyQueue != null) {
+      applyQueue.setBudget(applyBudget);
+    }
+  }
+
+  /**
+   * @return Returns the time, in seconds, actions are kept in the collection when polling, and
+   *     dispatched actions are remembered to be skipped when received back, once written.
+   */
+  public int getExpireSeconds() {
+    return this.expireSeconds;
+  }
+
+  /**
+   * Sets the time, in seconds, actions are kept in the collection when polling, and dispatched
+   * actions are remembered to be skipped when received back, once written. This should be set
+   * before the worker starts, as the collection's TTL index is created when polling starts.
+   *
+   * @param expireSeconds The time to set.
+   */
+  public void setExpireSeconds(int expireSeconds) {
+    authoredActions.setTimeToLive(expireSeconds);
+    this.expireSeconds = expireSeconds;
+  }
+
+  /** @return Returns true if the worker receives actions through a tailable cursor. */
+  public boolean isPushMode() {
+    return this.tailer != null;
+  }
+
+  /** @return Returns the size, in bytes, of the capped collection created for push mode. */
+  public long getCappedSize() {
+    return this.cappedSize;
+  }
+
+  /**
+   * Sets the size, in bytes, of the capped collection created for push mode. This only applies
+   * when the collection does not exist yet.
+   *
+   * @param cappedSize The size to set.
+   */
+  public void setCappedSize(long cappedSize) {
+    if (cappedSize < 4096L) {
+      throw new IllegalArgumentException("Capped size must be at least 4096 bytes.");
+    }
+    this.cappedSize = cappedSize;
+  }
+
   public MongoCollection getMongoCollection() {
     return this.collection;
   }
@@ -129,7 +419,11 @@ public abstract class MongoActionWorker<A extends MongoAction> extends BukkitRun
    * @param action The MongoAction to dispatch.
    */
   public void dispatch(MongoAction action) {
-    listAuthoredActions.add(action.getUniqueId());
+    UUID id = action.getUniqueId();
+    // The action can be held up in the write queue for any amount of time, such as while MongoDB
+    // cannot be reached, so its ID only starts to expire once it is written.
+    authoredActions.add(id);
+    action.setWrittenListener(() -> authoredActions.confirm(id));
     action.save();
   }
 
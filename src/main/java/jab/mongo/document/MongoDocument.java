@@ -18,6 +18,9 @@ package jab.mongo.document;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.metrics.jfr.MongoDocumentEvent;
 import jab.mongo.MongoCollection;
 
 import java.util.HashMap;
@@ -162,16 +165,51 @@ public abstract class MongoDocument {
 
   /** Saves the MongoDocument with a given field to identify the document, if it already exists. */
   public void save() {
+    MongoDocumentEvent event = null;
+    if (FlightRecorderSupport.AVAILABLE) {
+      event = new MongoDocumentEvent();
+      event.begin();
+    }
     // Create a new DBObject with the document's identifier.
     DBObject object = new BasicDBObject(getFieldId(), getFieldValue());
     // Populate the main document.
     onSave(object);
     // Save the elements.
     saveElements(object);
+    if (event != null) {
+      event.record(
+          "save", getCollectionName(), getFieldValue(), () -> getEncodedSize(object));
+    }
     // Upsert the document.
     getCollection().upsert(object, getFieldId(), this);
   }
 
+  /**
+   * @return Returns the String name of the collection storing the document, or null if the
+   *     collection is not connected.
+   */
+  public String getCollectionName() {
+    MongoCollection collection = getCollection();
+    return collection != null && collection.getDBCollection() != null
+        ? collection.getDBCollection().getName()
+        : null;
+  }
+
+  /**
+   * Measures the encoded size of a DBObject. This encodes the object, so only use it where the
+   * cost is acceptable, such as when a JFR event is committed.
+   *
+   * @param object The DBObject to measure.
+   * @return Returns the size, in bytes, of the encoded DBObject, or -1 if it cannot be encoded.
+   */
+  public static int getEncodedSize(DBObject object) {
+    try {
+      return new DefaultDBEncoder().encode(object).length;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
   public void saveElements(DBObject object) {
     // Go through each element.
     for (String key : mapDocumentElements.keySet()) {
@@ -93,6 +93,11 @@ public class MongoNode extends MongoDocumentElement {
    */
   public void setFlag(boolean flag, boolean save) {
     this.flag = flag;
+    // Let the document know the node changed, so the next save only writes the change.
+    MongoDocument mongoDocument = getMongoDocument();
+    if (mongoDocument instanceof MongoUniqueNodeDocument) {
+      ((MongoUniqueNodeDocument) mongoDocument).markNodeDirty(getNode());
+    }
     // Save the document if the requested.
     if (save) {
       save();
@@ -107,11 +112,12 @@ public class MongoNode extends MongoDocumentElement {
   /**
    * (Private Method)
    *
-   * <p>Sets the node ID of the MongoNode.
+   * <p>Sets the node ID of the MongoNode. The node is stored trimmed and in lower-case.
    *
    * @param node The node ID to set.
    */
   private void setNode(String node) {
-    this.node = node.toLowerCase();
+    // Format the node once when it is created or loaded, so nothing comparing it has to.
+    this.node = node.trim().toLowerCase();
   }
 }
@@ -16,12 +16,14 @@
 
 package jab.mongo.document;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import jab.mongo.MongoCollection;
 
 import java.util.UUID;
+import java.util.logging.Level;
 
 /**
  * A MongoDocument implementation that handles documents with a Unique ID.
@@ -46,21 +48,14 @@ public abstract class MongoUniqueDocument extends MongoDocument {
   /**
    * New constructor with provided Unique ID.
    *
+   * <p>The ID is not checked against the collection here. The collection's unique index on 'id'
+   * rejects the first save if the ID is in use, and 'onDuplicateId(MongoException)' is called.
+   *
    * @param collection The MongoCollection storing the MongoDocument.
    * @param uniqueId The Unique ID being assigned.
    */
   public MongoUniqueDocument(MongoCollection collection, UUID uniqueId) {
     super(collection, "id");
-    DBObject query = new BasicDBObject("id", uniqueId.toString());
-    DBCursor cursor = collection.find(query);
-    if (cursor.hasNext()) {
-      cursor.close();
-      throw new IllegalArgumentException(
-          "New Object in collection contains ID that is already in use: \""
-              + uniqueId.toString()
-              + "\".");
-    }
-    cursor.close();
     setUniqueId(uniqueId, false);
   }
 
@@ -108,4 +103,55 @@ public abstract class MongoUniqueDocument extends MongoDocument {
   public Object getFieldValue() {
     return getUniqueId();
   }
+
+  /**
+   * Called on the transaction worker thread when inserting the document failed, because a
+   * document with the same Unique ID already exists. The stored document is not the one this
+   * document saved. Documents that only send their changes should write themselves in full on their
+   * next save.
+   *
+   * @param exception The MongoException reporting the duplicate key.
+   */
+  public void onDuplicateId(MongoException exception) {
+    getCollection()
+        .getDatabase()
+        .getLogger()
+        .log(
+            Level.WARNING,
+            "Document already exists in \""
+                + getCollectionName()
+                + "\" with ID: \""
+                + getUniqueId()
+                + "\".",
+            exception);
+  }
+
+  /**
+   * Called on the transaction worker thread once a full write of the document, queued by 'save()',
+   * has been written to MongoDB.
+   */
+  public void onWritten() {}
+
+  /**
+   * Called on the transaction worker thread when a write of the document failed for any other
+   * reason than a duplicate ID. The write is not sent again. Documents that only send their
+   * changes should write themselves in full on their next save.
+   *
+   * @param exception The MongoException reporting the failure.
+   */
+  public void onWriteFailure(MongoException exception) {}
+
+  /**
+   * Creates a query for the document with a Unique ID. IDs are saved as UUID values, and were
+   * saved as Strings before, so both are matched.
+   *
+   * @param uniqueId The Unique ID of the document.
+   * @return Returns the query DBObject.
+   */
+  public static DBObject createIdQuery(UUID uniqueId) {
+    BasicDBList listIds = new BasicDBList();
+    listIds.add(uniqueId);
+    listIds.add(uniqueId.toString());
+    return new BasicDBObject("id", new BasicDBObject("$in", listIds));
+  }
 }
@@ -18,10 +18,19 @@ package jab.mongo.document;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.metrics.jfr.MongoDocumentEvent;
 import jab.mongo.MongoCollection;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -29,12 +38,41 @@ import java.util.UUID;
  *
  * <p>(All nodes are stored and compared in lower-case automatically)
  *
+ * <p>The document remembers the state last written to the database. Once the document exists in
+ * the database, saving only sends the fields and nodes that changed since, as '$set', '$unset',
+ * '$addToSet' and '$pull' operators. The first save of a new (or deleted) document writes it in
+ * full.
+ *
+ * <p>Changes saved while the previous update is still queued are merged into it, so saving a
+ * document repeatedly in one flush window sends one update.
+ *
+ * <p>The saved state is updated when changes are queued. If a write then fails, or the insert finds
+ * a document with the same ID already stored, the document no longer knows what the database
+ * holds, so its next save writes it in full again.
+ *
  * @author Jab
  */
 public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
 
   /** The List of String nodes. */
   private List<MongoNode> listMongoNodes;
+  /** The MongoNodes, identified by their String node. */
+  private Map<String, MongoNode> mapMongoNodes;
+  /** The top-level field values last written to the database. */
+  private Map<String, Object> mapSavedFields;
+  /** The node flags last written to the database, identified by their String node. */
+  private Map<String, Boolean> mapSavedNodes;
+  /** The String nodes added, removed, or changed since the last save. */
+  private Set<String> setDirtyNodes;
+  /** Flag for the document existing in the database, so that saves can be sent as changes. */
+  private boolean persisted;
+  /**
+   * Flag for a write of the document failing, or its insert finding the ID in use, so the next save
+   * writes it in full.
+   */
+  private volatile boolean resync;
+  /** The last update queued. Later saves merge into it until the worker takes it. */
+  private MongoUniqueNodeDocumentUpdate pendingUpdate;
 
   /**
    * MongoDB constructor.
@@ -44,8 +82,23 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
    */
   public MongoUniqueNodeDocument(MongoCollection collection, DBObject object) {
     super(collection, object);
-    listMongoNodes = new ArrayList<>();
+    MongoDocumentEvent event = null;
+    if (FlightRecorderSupport.AVAILABLE) {
+      event = new MongoDocumentEvent();
+      event.begin();
+    }
+    initialize();
     loadNodes(object);
+    // Remember the loaded fields, so the first save only sends what changed.
+    for (String key : object.keySet()) {
+      if (!key.equals("_id") && !key.equals(getFieldId()) && !key.equals("nodes")) {
+        mapSavedFields.put(key, object.get(key));
+      }
+    }
+    persisted = true;
+    if (event != null) {
+      event.record("load", getCollectionName(), getFieldValue(), () -> getEncodedSize(object));
+    }
   }
 
   /**
@@ -55,7 +108,7 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
    */
   public MongoUniqueNodeDocument(MongoCollection collection) {
     super(collection);
-    listMongoNodes = new ArrayList<>();
+    initialize();
   }
 
   /**
@@ -66,7 +119,20 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
    */
   public MongoUniqueNodeDocument(MongoCollection collection, UUID uniqueId) {
     super(collection, uniqueId);
+    initialize();
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Creates the containers for the nodes and the saved state.
+   */
+  private void initialize() {
     listMongoNodes = new ArrayList<>();
+    mapMongoNodes = new HashMap<>();
+    mapSavedFields = new HashMap<>();
+    mapSavedNodes = new HashMap<>();
+    setDirtyNodes = new LinkedHashSet<>();
   }
 
   /**
@@ -78,6 +144,9 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
     // Grab the list of MongoNodes in DBObject format.
     @SuppressWarnings("rawtypes")
     List list = (List) object.get("nodes");
+    if (list == null) {
+      return;
+    }
     // Go through each DBObject.
     for (Object oNodeNext : list) {
       // Cast to the DBObject class.
@@ -88,6 +157,10 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
       mongoNodeNext.onLoad(objectNodeNext);
       // Add to the list of MongoNodes.
       this.listMongoNodes.add(mongoNodeNext);
+      this.mapMongoNodes.put(mongoNodeNext.getNode(), mongoNodeNext);
+      // The node is loaded as it is in the database.
+      this.mapSavedNodes.put(mongoNodeNext.getNode(), mongoNodeNext.getFlag());
+      this.setDirtyNodes.remove(mongoNodeNext.getNode());
     }
   }
 
@@ -114,22 +187,207 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
 
   @Override
   public void save() {
+    MongoDocumentEvent event = null;
+    if (FlightRecorderSupport.AVAILABLE) {
+      event = new MongoDocumentEvent();
+      event.begin();
+    }
     // Create a new DBObject with the document's identifier.
     DBObject object = new BasicDBObject(getFieldId(), getFieldValue());
     // Populate the main document.
     onSave(object);
     // Save the elements.
     saveElements(object);
-    // Save the nodes.
-    saveNodes(object);
-    // Upsert the document.
-    getCollection().upsert(object, getFieldId(), this);
+    // If the document is not in the database yet, it has to be inserted in full.
+    if (!persisted) {
+      // Save the nodes.
+      saveNodes(object);
+      // Remember what was written. This is done before queueing the insert, as the driver adds
+      // the '_id' field to the DBObject on the worker thread.
+      rememberSaved(object);
+      persisted = true;
+      pendingUpdate = null;
+      // The driver changes the DBObject once the insert is queued, so it is measured first.
+      if (event != null) {
+        event.record("insert", getCollectionName(), getFieldValue(), () -> getEncodedSize(object));
+      }
+      // Insert the document. The unique index on the ID field rejects a duplicate.
+      getCollection().insert(object, getFieldId(), this);
+      return;
+    }
+    // A write failed, so what the database holds is unknown. Write the whole document again.
+    if (resync) {
+      resync = false;
+      pendingUpdate = null;
+      saveNodes(object);
+      rememberSaved(object);
+      if (event != null) {
+        event.record("save", getCollectionName(), getFieldValue(), () -> getEncodedSize(object));
+      }
+      getCollection().upsert(object, getFieldId(), this);
+      return;
+    }
+    // Otherwise, only send what changed. If the last update is still queued, add to it.
+    MongoUniqueNodeDocumentUpdate update = pendingUpdate;
+    if (update != null) {
+      synchronized (update) {
+        if (!update.isSealed()) {
+          saveFieldChanges(object, update);
+          saveNodeChanges(update);
+          if (event != null) {
+            event.record("merge", getCollectionName(), getFieldValue(), update::getEncodedSize);
+          }
+          return;
+        }
+      }
+    }
+    update =
+        new MongoUniqueNodeDocumentUpdate(getCollection(), getFieldId(), getFieldValue(), this);
+    saveFieldChanges(object, update);
+    saveNodeChanges(update);
+    if (update.isEmpty()) {
+      return;
+    }
+    if (event != null) {
+      event.record("update", getCollectionName(), getFieldValue(), update::getEncodedSize);
+    }
+    pendingUpdate = update;
+    getCollection().update(update);
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Remembers a document written in full as the state of the database.
+   *
+   * @param object The DBObject containing the whole document.
+   */
+  private void rememberSaved(DBObject object) {
+    mapSavedFields.clear();
+    for (String key : object.keySet()) {
+      if (!key.equals(getFieldId()) && !key.equals("nodes")) {
+        mapSavedFields.put(key, object.get(key));
+      }
+    }
+    mapSavedNodes.clear();
+    for (MongoNode mongoNode : listMongoNodes) {
+      mapSavedNodes.put(mongoNode.getNode(), mongoNode.getFlag());
+    }
+    setDirtyNodes.clear();
+  }
+
+  @Override
+  public void onWriteFailure(MongoException exception) {
+    resync = true;
+  }
+
+  @Override
+  public void onDuplicateId(MongoException exception) {
+    super.onDuplicateId(exception);
+    // The stored document was written by someone else, so changes must not be sent against it.
+    resync = true;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Compares the top-level fields with the ones last written, and adds the fields that changed
+   * to the update.
+   *
+   * @param object The DBObject containing the current fields.
+   * @param update The update to add the changes to.
+   */
+  private void saveFieldChanges(DBObject object, MongoUniqueNodeDocumentUpdate update) {
+    for (String key : object.keySet()) {
+      if (key.equals(getFieldId())) {
+        continue;
+      }
+      Object value = object.get(key);
+      if (!mapSavedFields.containsKey(key) || !Objects.equals(mapSavedFields.get(key), value)) {
+        update.set(key, value);
+        mapSavedFields.put(key, value);
+      }
+    }
+    Iterator<String> iterator = mapSavedFields.keySet().iterator();
+    while (iterator.hasNext()) {
+      String key = iterator.next();
+      if (!object.containsField(key)) {
+        update.unset(key);
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Adds the nodes added, removed, or changed since the last save to the update.
+   *
+   * @param update The update to add the changes to.
+   */
+  private void saveNodeChanges(MongoUniqueNodeDocumentUpdate update) {
+    if (setDirtyNodes.isEmpty()) {
+      return;
+    }
+    for (String node : setDirtyNodes) {
+      MongoNode mongoNode = mapMongoNodes.get(node);
+      Boolean savedFlag = mapSavedNodes.get(node);
+      if (mongoNode == null) {
+        // The node was removed.
+        if (savedFlag != null) {
+          update.pullNode(node);
+          mapSavedNodes.remove(node);
+        }
+      } else if (savedFlag == null) {
+        // The node was added.
+        DBObject objectNode = new BasicDBObject();
+        mongoNode.onSave(objectNode);
+        update.addNode(node, objectNode, mongoNode.getFlag());
+        mapSavedNodes.put(node, mongoNode.getFlag());
+      } else if (savedFlag != mongoNode.getFlag()) {
+        // The flag of the node changed.
+        DBObject objectNode = new BasicDBObject();
+        mongoNode.onSave(objectNode);
+        update.changeNode(node, objectNode, mongoNode.getFlag());
+        mapSavedNodes.put(node, mongoNode.getFlag());
+      }
+    }
+    setDirtyNodes.clear();
+  }
+
+  @Override
+  public void delete() {
+    super.delete();
+    // The next save has to write the document in full.
+    persisted = false;
+    resync = false;
+    pendingUpdate = null;
+    mapSavedFields.clear();
+    mapSavedNodes.clear();
+    setDirtyNodes.clear();
+  }
+
+  /**
+   * Marks a node as changed, so the next save sends its new state.
+   *
+   * @param node The String node that changed.
+   */
+  void markNodeDirty(String node) {
+    // Nodes can be marked while the document is still being constructed.
+    if (setDirtyNodes != null && node != null) {
+      setDirtyNodes.add(node);
+    }
+  }
+
+  /** @return Returns true if the document exists in the database, and saves send only changes. */
+  public boolean isPersisted() {
+    return this.persisted;
   }
 
   /**
-   * Adds a MongoNode to the document. If the MongoNode already exists within the document, the flag
-   * will be set for the first MongoNode, and then the MongoNode will be removed. The given
-   * MongoNode will be put into the list thereafter.
+   * Adds a MongoNode to the document. If a MongoNode with the same node already exists within the
+   * document, the flag will be set for the first MongoNode, and then the MongoNode will be removed.
+   * The given MongoNode will be put into the list thereafter.
    *
    * @param mongoNode The MongoNode to add (or override), to the document.
    * @param save Flag for saving the document after adding the node.
@@ -141,17 +399,21 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
     }
     // If the node already exists, the one being set needs to replace the instance
     // entirely.
-    if (listMongoNodes.contains(mongoNode)) {
-      // Grab the previous instance that identifies with the equals operation.
-      MongoNode mongoNodeOther = listMongoNodes.remove(listMongoNodes.indexOf(mongoNode));
-      // In case something is using this instance of the node, set the flag for
-      // reference.
-      mongoNodeOther.setFlag(mongoNode.getFlag(), false);
-      mongoNodeOther.setMongoDocument(null);
+    MongoNode mongoNodeOther = mapMongoNodes.get(mongoNode.getNode());
+    if (mongoNodeOther != null) {
+      listMongoNodes.remove(mongoNodeOther);
+      if (mongoNodeOther != mongoNode) {
+        // In case something is using this instance of the node, set the flag for
+        // reference.
+        mongoNodeOther.setMongoDocument(null);
+        mongoNodeOther.setFlag(mongoNode.getFlag(), false);
+      }
     }
     mongoNode.setMongoDocument(this);
     // Add the current instance.
     listMongoNodes.add(mongoNode);
+    mapMongoNodes.put(mongoNode.getNode(), mongoNode);
+    markNodeDirty(mongoNode.getNode());
     // If the argument to save is true
     if (save) {
       // Save the document.
@@ -173,9 +435,11 @@ public abstract class MongoUniqueNodeDocument extends MongoUniqueDocument {
       throw new IllegalArgumentException("MongoNode given is null.");
     }
     // Check if the MongoNode is assigned to the document.
-    if (listMongoNodes.contains(mongoNode)) {
+    MongoNode mongoNodeAssigned = mapMongoNodes.remove(mongoNode.getNode());
+    if (mongoNodeAssigned != null) {
       // Remove from the list.
-      listMongoNodes.remove(mongoNode);
+      listMongoNodes.remove(mongoNodeAssigned);
+      markNodeDirty(mongoNode.getNode());
       // Set the flag to true to return success.
       returned = true;
     }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jab.mongo.document;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import jab.mongo.MongoCollection;
+import jab.mongo.transaction.MongoDocumentTransactionUpdate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Update of a MongoUniqueNodeDocument that takes the changes of later saves while it is queued.
+ *
+ * <p>Changes are kept per field and per node, relative to the database before the update, so
+ * saving the same document repeatedly in one flush window is sent as one update. The operators are
+ * built when the worker takes the update from the queue, and the update takes no changes after.
+ * Every method taking changes must be called while synchronized on the update, after checking
+ * 'isSealed()'.
+ *
+ * @author Jab
+ */
+public class MongoUniqueNodeDocumentUpdate extends MongoDocumentTransactionUpdate {
+
+  /** The top-level fields to set. */
+  private final Map<String, Object> mapSet = new LinkedHashMap<>();
+  /** The top-level fields to unset. */
+  private final Set<String> setUnset = new LinkedHashSet<>();
+  /** The nodes to add, identified by their String node. */
+  private final Map<String, DBObject> mapAdd = new LinkedHashMap<>();
+  /** The String nodes to pull. */
+  private final Set<String> setPull = new LinkedHashSet<>();
+  /** The flags to set on existing nodes, identified by their String node. */
+  private final Map<String, Boolean> mapFlags = new LinkedHashMap<>();
+  /** Flag for the worker having taken the update from the queue. */
+  private boolean sealed;
+
+  /**
+   * Main constructor.
+   *
+   * @param collection The MongoCollection storing the document.
+   * @param field The String field identifying the document.
+   * @param value The value of the field identifying the document.
+   * @param document The MongoUniqueNodeDocument being updated.
+   */
+  public MongoUniqueNodeDocumentUpdate(
+      MongoCollection collection, String field, Object value, MongoUniqueDocument document) {
+    super(collection, field, value, document);
+  }
+
+  /**
+   * Sets a top-level field.
+   *
+   * @param key The String field to set.
+   * @param value The value to set.
+   */
+  void set(String key, Object value) {
+    setUnset.remove(key);
+    mapSet.put(key, value);
+  }
+
+  /**
+   * Unsets a top-level field.
+   *
+   * @param key The String field to unset.
+   */
+  void unset(String key) {
+    mapSet.remove(key);
+    setUnset.add(key);
+  }
+
+  /**
+   * Adds a node the document did not have at the last save.
+   *
+   * @param node The String node.
+   * @param objectNode The DBObject of the node.
+   * @param flag The flag of the node.
+   */
+  void addNode(String node, DBObject objectNode, boolean flag) {
+    if (setPull.remove(node)) {
+      // The database still has the node, so only its flag has to be set.
+      mapFlags.put(node, flag);
+    } else {
+      mapAdd.put(node, objectNode);
+    }
+  }
+
+  /**
+   * Removes a node the document had at the last save.
+   *
+   * @param node The String node.
+   */
+  void pullNode(String node) {
+    if (mapAdd.remove(node) == null) {
+      mapFlags.remove(node);
+      setPull.add(node);
+    }
+  }
+
+  /**
+   * Changes the flag of a node the document had at the last save.
+   *
+   * @param node The String node.
+   * @param objectNode The DBObject of the node.
+   * @param flag The new flag of the node.
+   */
+  void changeNode(String node, DBObject objectNode, boolean flag) {
+    if (mapAdd.containsKey(node)) {
+      // The node is not in the database yet, so it is added with the new flag.
+      mapAdd.put(node, objectNode);
+    } else {
+      mapFlags.put(node, flag);
+    }
+  }
+
+  /** @return Returns true if the worker has taken the update, so it takes no more changes. */
+  public synchronized boolean isSealed() {
+    return this.sealed;
+  }
+
+  @Override
+  public synchronized void seal() {
+    if (sealed) {
+      return;
+    }
+    sealed = true;
+    List<DBObject[]> listUpdates = build();
+    for (DBObject[] update : listUpdates) {
+      add(update[0], update[1]);
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Builds the updates for the changes taken. Removed nodes are pulled with the top-level
+   * operators. Added nodes are added to the set, and changed flags are set with the positional
+   * operator, in their own updates, as MongoDB refuses conflicting operators on the same array in
+   * one update. A node is only ever in one of them, so the updates do not depend on each other's
+   * order.
+   *
+   * <p>Every operator is idempotent, so an update replayed from the journal after it was already
+   * written leaves the document as it was. Adding to the set, instead of pushing, keeps a node
+   * from being added twice.
+   *
+   * @return Returns the List of queries and updates.
+   */
+  private List<DBObject[]> build() {
+    List<DBObject[]> listUpdates = new ArrayList<>();
+    DBObject operators = new BasicDBObject();
+    if (!mapSet.isEmpty()) {
+      operators.put("$set", new BasicDBObject(mapSet));
+    }
+    if (!setUnset.isEmpty()) {
+      DBObject unset = new BasicDBObject();
+      for (String key : setUnset) {
+        unset.put(key, "");
+      }
+      operators.put("$unset", unset);
+    }
+    if (!setPull.isEmpty()) {
+      operators.put(
+          "$pull",
+          new BasicDBObject(
+              "nodes",
+              new BasicDBObject("name", new BasicDBObject("$in", new ArrayList<>(setPull)))));
+    }
+    if (!operators.keySet().isEmpty()) {
+      listUpdates.add(new DBObject[] {new BasicDBObject(), operators});
+    }
+    if (!mapAdd.isEmpty()) {
+      DBObject add =
+          new BasicDBObject("nodes", new BasicDBObject("$each", new ArrayList<>(mapAdd.values())));
+      listUpdates.add(new DBObject[] {new BasicDBObject(), new BasicDBObject("$addToSet", add)});
+    }
+    for (Map.Entry<String, Boolean> entry : mapFlags.entrySet()) {
+      listUpdates.add(
+          new DBObject[] {
+            new BasicDBObject("nodes.name", entry.getKey()),
+            new BasicDBObject(
+                "$set", new BasicDBObject("nodes.$.flag", entry.getValue() ? "1" : "0"))
+          });
+    }
+    return listUpdates;
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    if (sealed) {
+      return super.isEmpty();
+    }
+    return mapSet.isEmpty()
+        && setUnset.isEmpty()
+        && mapAdd.isEmpty()
+        && setPull.isEmpty()
+        && mapFlags.isEmpty();
+  }
+
+  @Override
+  public synchronized int getEncodedSize() {
+    if (sealed) {
+      return super.getEncodedSize();
+    }
+    int size = 0;
+    for (DBObject[] update : build()) {
+      size += MongoDocument.getEncodedSize(update[1]);
+    }
+    return size;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.transaction;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the bulk writes executed by a MongoDatabaseTransactionWorker. Counters are updated
+ * by the worker thread, and can be read from any thread.
+ *
+ * @author Jab
+ */
+public class MongoBulkWriteMetrics {
+
+  /** The amount of bulk writes executed. */
+  private final LongAdder bulkCount = new LongAdder();
+  /** The amount of write requests sent in bulk writes. */
+  private final LongAdder requestCount = new LongAdder();
+  /** The amount of write requests that failed. */
+  private final LongAdder failureCount = new LongAdder();
+  /** The total time, in nanoseconds, spent executing bulk writes. */
+  private final LongAdder totalNanos = new LongAdder();
+  /** The largest amount of write requests sent in one bulk write. */
+  private final AtomicLong maxSize = new AtomicLong();
+  /** The time, in nanoseconds, the last bulk write took. */
+  private volatile long lastNanos;
+
+  /**
+   * Records an executed bulk write.
+   *
+   * @param size The amount of write requests in the bulk write.
+   * @param nanos The time, in nanoseconds, the bulk write took.
+   * @param failures The amount of write requests that failed.
+   */
+  void record(int size, long nanos, int failures) {
+    bulkCount.increment();
+    requestCount.add(size);
+    failureCount.add(failures);
+    totalNanos.add(nanos);
+    lastNanos = nanos;
+    long max;
+    while (size > (max = maxSize.get())) {
+      if (maxSize.compareAndSet(max, size)) {
+        break;
+      }
+    }
+  }
+
+  /** @return Returns the amount of bulk writes executed. */
+  public long getBulkCount() {
+    return bulkCount.sum();
+  }
+
+  /** @return Returns the amount of write requests sent in bulk writes. */
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  /** @return Returns the amount of write requests that failed. */
+  public long getFailureCount() {
+    return failureCount.sum();
+  }
+
+  /** @return Returns the largest amount of write requests sent in one bulk write. */
+  public long getMaxSize() {
+    return maxSize.get();
+  }
+
+  /** @return Returns the average amount of write requests per bulk write. */
+  public double getAverageSize() {
+    long bulks = getBulkCount();
+    return bulks == 0 ? 0 : (double) getRequestCount() / bulks;
+  }
+
+  /** @return Returns the average time, in milliseconds, a bulk write took. */
+  public double getAverageLatencyMillis() {
+    long bulks = getBulkCount();
+    return bulks == 0 ? 0 : (double) totalNanos.sum() / bulks / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /** @return Returns the time, in milliseconds, the last bulk write took. */
+  public double getLastLatencyMillis() {
+    return (double) lastNanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -16,22 +16,98 @@
 
 package jab.mongo.transaction;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.MongoException;
+
+import jab.metrics.Histogram;
+import jab.metrics.MetricsRegistry;
+import jab.metrics.jfr.FlightRecorderSupport;
+import jab.metrics.jfr.MongoBulkWriteEvent;
+import jab.mongo.MongoCollection;
 import jab.mongo.MongoDatabase;
 
 /**
  * Runnable interface that handles ordered transactions for MongoDocuments.
  *
+ * <p>The worker parks while the queue is empty, and is woken by the MongoDatabase as soon as a
+ * transaction is added. Queued transactions are drained in batches, and each batch is sent as one
+ * unordered bulk write per MongoCollection. Transactions made redundant by a later transaction for
+ * the same document in the batch are dropped before the batch executes, so saving a document
+ * repeatedly writes only its latest state.
+ *
+ * <p>If the MongoDatabase has a MongoTransactionJournal, the worker is its only writer. Queueing
+ * never waits on the file. Instead, the worker moves every queued transaction into the journal when
+ * it wakes, after the flush delay, and before each bulk write. A queued transaction is therefore
+ * journaled within the flush delay, unless the worker is blocked on a bulk write, in which case it
+ * is journaled once that bulk write returns. The journal is committed after each batch is
+ * written. While MongoDB cannot be reached, the
+ * worker retries the bulk write instead of dropping it. If the database shuts down first, the
+ * remaining transactions are left in the journal for the next start.
+ *
  * @author Jab
  */
 public class MongoDatabaseTransactionWorker implements Runnable {
 
-  /** The amount of time to sleep when idle. */
-  private long sleepTimer = 10L;
+  /** The default maximum amount of transactions to drain per batch. */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  /** The default maximum amount of transactions to send per bulk write. */
+  public static final int DEFAULT_BULK_SIZE = 1000;
+  /** The time, in milliseconds, before first retrying a bulk write MongoDB did not receive. */
+  public static final long RETRY_DELAY = 250L;
+  /** The longest time, in milliseconds, between retries of a bulk write. */
+  public static final long MAX_RETRY_DELAY = 5000L;
+
   /** The MongoDatabase using the worker to execute transactions. */
   private MongoDatabase database;
+  /** The maximum amount of transactions to drain per batch. */
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  /** The maximum amount of write requests to send per bulk write. */
+  private volatile int bulkSize = DEFAULT_BULK_SIZE;
+  /** The counters for the bulk writes executed. */
+  private final MongoBulkWriteMetrics metrics = new MongoBulkWriteMetrics();
+  /** The time, in milliseconds, to let transactions gather after waking before draining a batch. */
+  private volatile long flushDelay;
+  /** The total amount of transactions dropped as redundant. */
+  private final AtomicLong coalescedCount = new AtomicLong();
+  /** The thread running the worker. Null until the worker starts. */
+  private volatile Thread thread;
+  /** Flag for the worker being parked, or about to park, while waiting for transactions. */
+  private volatile boolean waiting;
+  /** The Histogram of write requests per bulk write. */
+  private final Histogram histogramBulkSize;
+  /** The Histogram of the time, in nanoseconds, bulk writes take. */
+  private final Histogram histogramBulkNanos;
+  /**
+   * The Histograms of the time, in nanoseconds, from queueing a transaction to its bulk write
+   * finishing, identified by the transaction class. Only the worker thread uses the Map.
+   */
+  private final Map<Class<?>, Histogram> mapLatencies = new HashMap<>();
+  /**
+   * Flag for MongoDB being unreachable as the database shut down. The journal is no longer
+   * committed, and nothing more is written. Only the worker thread uses the flag.
+   */
+  private boolean journalStalled;
+  /** The transactions appended to the journal, but not written yet. Only the worker uses it. */
+  private final ArrayDeque<MongoDocumentTransaction> queueJournaled = new ArrayDeque<>();
+  /** The size of queueJournaled, for other threads to read. */
+  private volatile int journaledCount;
 
   /**
    * Main constructor.
@@ -41,52 +117,426 @@ public class MongoDatabaseTransactionWorker implements Runnable {
   public MongoDatabaseTransactionWorker(MongoDatabase database) {
     // Set the database using the worker.
     setMongoDatabase(database);
+    MetricsRegistry registry = database.getMetrics();
+    histogramBulkSize = registry.histogram("mongo.bulk.size");
+    histogramBulkNanos = registry.histogram("mongo.bulk.nanos");
+    registry.gauge("mongo.bulk.failures", metrics::getFailureCount);
+    registry.gauge("mongo.transactions.coalesced", coalescedCount::get);
   }
 
   @Override
   public void run() {
     System.out.println("Starting MongoDatabase Transaction Worker...");
+    this.thread = Thread.currentThread();
     // The database to work with.
     MongoDatabase database = getMongoDatabase();
-    // The list to work with outside of the main list from the database.
+    // The list to work with outside of the queue from the database.
     List<MongoDocumentTransaction> listToTransact = new ArrayList<>();
-    // Loop through until the database is flagged to shut down. If there are
-    // queued
-    // transactions waiting to be processed during a shutdown, those will be
-    // ran
-    // first before exiting the loop.
-    while (!database.isShutDown()
-        || (database.isShutDown() && database.getTransactionQueueSize() > 0)) {
-      // Clear the local list.
+    // Loop through until the database is flagged to shut down. If there are queued transactions
+    // waiting to be processed during a shutdown, those will be ran first before exiting the loop.
+    while (true) {
+      // Drain the next batch of transactions, in the order they were added.
       listToTransact.clear();
-      // Grab the current list of transactions.
-      List<MongoDocumentTransaction> listTransactions = database.getTransactions();
-      // Ensure that no transactions are added during the transfer of
-      // transactions to
-      // the local list.
-      synchronized (listTransactions) {
-        // Add every transaction currently on the database list to the
-        // local list.
-        listToTransact.addAll(listTransactions);
-        // Clear the database list.
-        listTransactions.clear();
+      // The latest journal sequence in the batch, before any transaction is coalesced.
+      long sequence = 0L;
+      MongoDocumentTransaction next;
+      if (database.getJournal() != null || !queueJournaled.isEmpty()) {
+        journalQueued();
+        while (listToTransact.size() < batchSize && (next = queueJournaled.poll()) != null) {
+          listToTransact.add(next);
+          sequence = Math.max(sequence, next.getJournalSequence());
+        }
+        journaledCount = queueJournaled.size();
+      } else {
+        while (listToTransact.size() < batchSize && (next = database.pollTransaction()) != null) {
+          next.seal();
+          listToTransact.add(next);
+        }
       }
       // Make sure we have transactions to process.
-      if (listToTransact.size() > 0) {
-        // Go through each transaction.
-        for (MongoDocumentTransaction transaction : listToTransact) {
-          System.out.println(transaction);
-          // Dispatch the transaction method to handle the operation.
-          transaction.run();
+      if (!listToTransact.isEmpty()) {
+        int coalesced = MongoTransactionCoalescer.coalesce(listToTransact);
+        if (coalesced > 0) {
+          coalescedCount.addAndGet(coalesced);
+        }
+        execute(listToTransact);
+        MongoTransactionJournal journal = database.getJournal();
+        if (journal != null && sequence > 0L && !journalStalled) {
+          journal.commit(sequence);
+        }
+        continue;
+      }
+      // The queue is empty. If the database is shutting down, we are done.
+      if (database.isShutDown()) {
+        break;
+      }
+      // Announce that the worker is about to park, then check the queue again. A transaction
+      // added after the announcement will unpark the worker, and one added before it is seen by
+      // the second check, so no wake-up is lost.
+      waiting = true;
+      if (database.getTransactionQueueSize() == 0 && !database.isShutDown()) {
+        LockSupport.park(this);
+      }
+      waiting = false;
+      // Journal what woke the worker right away, instead of after the flush delay.
+      if (database.getJournal() != null) {
+        journalQueued();
+      }
+      // Give repeated saves of the same document a chance to land in the same batch. What is
+      // queued meanwhile is journaled at the top of the loop.
+      // A signal raced with the check above can leave a permit behind, which returns the park
+      // early, so park until the deadline passes.
+      long flushDelay = this.flushDelay;
+      if (flushDelay > 0) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushDelay);
+        long remaining;
+        while (!database.isShutDown() && (remaining = deadline - System.nanoTime()) > 0L) {
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+    }
+    MongoTransactionJournal journal = database.getJournal();
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        System.err.println("Failed to close the MongoTransactionJournal:");
+        e.printStackTrace();
+      }
+    }
+    this.thread = null;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Moves every queued transaction into the journal, and into the queue of journaled
+   * transactions waiting to be written. Transactions that cannot be journaled are still written.
+   */
+  private void journalQueued() {
+    MongoDatabase database = getMongoDatabase();
+    MongoTransactionJournal journal = database.getJournal();
+    MongoDocumentTransaction next;
+    boolean appended = false;
+    while ((next = database.pollTransaction()) != null) {
+      next.seal();
+      if (journal != null) {
+        try {
+          next.setJournalSequence(journal.append(next));
+          appended = true;
+        } catch (IOException | IllegalStateException e) {
+          System.err.println("Failed to journal MongoDocumentTransaction:");
+          e.printStackTrace();
+        }
+      }
+      queueJournaled.add(next);
+    }
+    journaledCount = queueJournaled.size();
+    if (appended) {
+      journal.flush();
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Executes a batch of transactions as one unordered bulk write per MongoCollection. A failing
+   * transaction does not stop the rest of the batch, or the worker.
+   *
+   * @param listToTransact The List of transactions to execute.
+   */
+  private void execute(List<MongoDocumentTransaction> listToTransact) {
+    // Group the transactions per collection, keeping their order. MongoCollections are compared by
+    // instance.
+    Map<MongoCollection, List<MongoDocumentTransaction>> mapCollections = new LinkedHashMap<>();
+    for (MongoDocumentTransaction transaction : listToTransact) {
+      mapCollections
+          .computeIfAbsent(transaction.getMongoCollection(), key -> new ArrayList<>())
+          .add(transaction);
+    }
+    List<MongoDocumentTransaction> listBulk = new ArrayList<>();
+    Set<MongoDocumentKey> setKeys = new HashSet<>();
+    for (Map.Entry<MongoCollection, List<MongoDocumentTransaction>> entry :
+        mapCollections.entrySet()) {
+      MongoCollection collection = entry.getKey();
+      for (MongoDocumentTransaction transaction : entry.getValue()) {
+        // An unordered bulk write may apply its requests in any order. Transactions for a document
+        // already in the bulk write go in the next one, so they still run in the order queued.
+        MongoDocumentKey key = transaction.getDocumentKey();
+        if (listBulk.size() >= bulkSize || setKeys.contains(key)) {
+          write(collection, listBulk);
+          listBulk.clear();
+          setKeys.clear();
+        }
+        listBulk.add(transaction);
+        setKeys.add(key);
+      }
+      write(collection, listBulk);
+      listBulk.clear();
+      setKeys.clear();
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Sends transactions for one MongoCollection as one unordered bulk write. Failed write
+   * requests are reported to the transactions that added them.
+   *
+   * <p>A bulk write MongoDB did not receive is retried while journaling, as the journal cannot be
+   * committed past it.
+   *
+   * @param collection The MongoCollection to write to.
+   * @param listBulk The List of transactions to write.
+   */
+  private void write(MongoCollection collection, List<MongoDocumentTransaction> listBulk) {
+    // The transactions stay in the journal, and are replayed on the next start.
+    if (listBulk.isEmpty() || journalStalled) {
+      return;
+    }
+    // The transaction that added each write request, by the index of the request.
+    List<MongoDocumentTransaction> listRequests = new ArrayList<>();
+    // The transactions with a failed write request, or null if the bulk write failed as a whole.
+    Set<MongoDocumentTransaction> setFailed = Collections.newSetFromMap(new IdentityHashMap<>());
+    MongoBulkWriteEvent event = null;
+    if (FlightRecorderSupport.AVAILABLE) {
+      event = new MongoBulkWriteEvent();
+      event.begin();
+    }
+    int failures;
+    long start;
+    long retryDelay = RETRY_DELAY;
+    while (true) {
+      // A bulk write can only execute once, so each retry builds it again.
+      BulkWriteOperation bulk = collection.getDBCollection().initializeUnorderedBulkOperation();
+      listRequests.clear();
+      for (MongoDocumentTransaction transaction : listBulk) {
+        int requests = transaction.addTo(bulk);
+        for (int index = 0; index < requests; index++) {
+          listRequests.add(transaction);
         }
       }
-      // Sleep to ensure not to start process resources.
+      if (listRequests.isEmpty()) {
+        return;
+      }
+      if (MongoDatabase.DEBUG) {
+        System.out.println(
+            "("
+                + collection.getDBCollection().getName()
+                + "): Writing bulk of "
+                + listRequests.size()
+                + " request(s).");
+      }
+      // Journal what was queued while the batch was gathered or the last bulk write ran, as this
+      // bulk write may block for as long as MongoDB takes to answer.
+      if (getMongoDatabase().getJournal() != null) {
+        journalQueued();
+      }
+      failures = 0;
+      setFailed.clear();
+      start = System.nanoTime();
       try {
-        Thread.sleep(sleepTimer);
-      } catch (InterruptedException e) {
+        bulk.execute();
+      } catch (BulkWriteException e) {
+        // Map each failed write request back to the transaction that added it.
+        for (BulkWriteError error : e.getWriteErrors()) {
+          failures++;
+          MongoDocumentTransaction transaction = listRequests.get(error.getIndex());
+          setFailed.add(transaction);
+          transaction.onFailure(new MongoException(error.getCode(), error.getMessage()));
+        }
+      } catch (MongoException e) {
+        if (isRetried(e)) {
+          System.err.println(
+              "MongoDB could not be reached. Retrying bulk write in " + retryDelay + " ms.");
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(retryDelay));
+          retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+          // Keep journaling what is queued during the outage, so it survives a restart.
+          journalQueued();
+          continue;
+        }
+        if (journalStalled) {
+          return;
+        }
+        // The bulk write failed as a whole.
+        failures = listRequests.size();
+        setFailed = null;
+        for (MongoDocumentTransaction transaction : listBulk) {
+          transaction.onFailure(e);
+        }
+      } catch (RuntimeException e) {
+        failures = listRequests.size();
+        setFailed = null;
+        System.err.println("Failed to run MongoDocumentTransactions:");
         e.printStackTrace();
       }
+      break;
     }
+    long end = System.nanoTime();
+    if (event != null) {
+      event.record(
+          collection.getDBCollection().getName(),
+          listBulk.size(),
+          listRequests.size(),
+          failures,
+          TimeUnit.NANOSECONDS.toMillis(end - listBulk.get(0).getQueuedNanos()));
+    }
+    if (setFailed != null) {
+      for (MongoDocumentTransaction transaction : listBulk) {
+        if (!setFailed.contains(transaction)) {
+          transaction.onSuccess();
+        }
+      }
+    }
+    metrics.record(listRequests.size(), end - start, failures);
+    histogramBulkSize.record(listRequests.size());
+    histogramBulkNanos.record(end - start);
+    for (MongoDocumentTransaction transaction : listBulk) {
+      latency(transaction).record(end - transaction.getQueuedNanos());
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Decides whether a failed bulk write is retried. Only bulk writes MongoDB did not receive are
+   * retried, and only while journaling. If the database is shutting down, the journal is left
+   * uncommitted instead.
+   *
+   * @param exception The MongoException the bulk write failed with.
+   * @return Returns true if the bulk write is retried.
+   */
+  private boolean isRetried(MongoException exception) {
+    if (getMongoDatabase().getJournal() == null
+        || !MongoTransactionJournal.isTransient(exception)) {
+      return false;
+    }
+    if (getMongoDatabase().isShutDown()) {
+      System.err.println(
+          "MongoDB could not be reached while shutting down. Queued transactions are kept in the"
+              + " journal for the next start.");
+      journalStalled = true;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @param transaction The transaction written.
+   * @return Returns the Histogram of queue-to-write latency for the class of the transaction.
+   */
+  private Histogram latency(MongoDocumentTransaction transaction) {
+    Class<?> type = transaction.getClass();
+    Histogram histogram = mapLatencies.get(type);
+    if (histogram == null) {
+      histogram =
+          getMongoDatabase()
+              .getMetrics()
+              .histogram("mongo.transaction." + type.getSimpleName() + ".nanos");
+      mapLatencies.put(type, histogram);
+    }
+    return histogram;
+  }
+
+  /**
+   * Wakes the worker if it is waiting for transactions. This is called by the MongoDatabase when a
+   * transaction is added, or when the database shuts down.
+   */
+  public void signal() {
+    if (waiting) {
+      Thread thread = this.thread;
+      if (thread != null) {
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  /**
+   * Waits for the worker to finish the queued transactions and stop, after the MongoDatabase is
+   * shut down.
+   *
+   * @param millis The longest time, in milliseconds, to wait. 0 waits forever.
+   * @return Returns true if the worker stopped.
+   * @throws InterruptedException Thrown if the calling thread is interrupted while waiting.
+   */
+  public boolean awaitStop(long millis) throws InterruptedException {
+    Thread thread = this.thread;
+    if (thread != null) {
+      thread.join(millis);
+    }
+    return this.thread == null;
+  }
+
+  /** @return Returns the amount of transactions journaled by the worker, but not written yet. */
+  public int getJournaledCount() {
+    return this.journaledCount;
+  }
+
+  /** @return Returns the maximum amount of transactions to drain per batch. */
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+
+  /**
+   * Sets the maximum amount of transactions to drain per batch.
+   *
+   * @param batchSize The batch size to set.
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1.");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /** @return Returns the maximum amount of transactions to send per bulk write. */
+  public int getBulkSize() {
+    return this.bulkSize;
+  }
+
+  /**
+   * Sets the maximum amount of transactions to send per bulk write.
+   *
+   * @param bulkSize The bulk size to set.
+   */
+  public void setBulkSize(int bulkSize) {
+    if (bulkSize < 1) {
+      throw new IllegalArgumentException("Bulk size must be at least 1.");
+    }
+    this.bulkSize = bulkSize;
+  }
+
+  /** @return Returns the counters for the bulk writes executed. */
+  public MongoBulkWriteMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * @return Returns the time, in milliseconds, the worker lets transactions gather after waking
+   *     before draining a batch.
+   */
+  public long getFlushDelay() {
+    return this.flushDelay;
+  }
+
+  /**
+   * Sets the time, in milliseconds, the worker lets transactions gather after waking before
+   * draining a batch. A longer delay coalesces more repeated saves, at the cost of write latency.
+   *
+   * @param flushDelay The delay to set. 0 drains as soon as the worker wakes.
+   */
+  public void setFlushDelay(long flushDelay) {
+    if (flushDelay < 0) {
+      throw new IllegalArgumentException("Flush delay cannot be negative.");
+    }
+    this.flushDelay = flushDelay;
+  }
+
+  /** @return Returns the total amount of transactions dropped as redundant. */
+  public long getCoalescedCount() {
+    return this.coalescedCount.get();
   }
 
   /** @return Returns the MongoDatabase using the worker. */
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.transaction;
+
+import jab.mongo.MongoCollection;
+
+/**
+ * Immutable key identifying the document a MongoDocumentTransaction targets, by its collection and
+ * the field and value used to find it.
+ *
+ * @author Jab
+ */
+public final class MongoDocumentKey {
+
+  /** The MongoCollection storing the document. */
+  private final MongoCollection collection;
+  /** The String field identifying the document. */
+  private final String field;
+  /** The value of the field identifying the document. */
+  private final Object value;
+
+  /**
+   * Main constructor.
+   *
+   * @param collection The MongoCollection storing the document.
+   * @param field The String field identifying the document.
+   * @param value The value of the field identifying the document.
+   */
+  public MongoDocumentKey(MongoCollection collection, String field, Object value) {
+    this.collection = collection;
+    this.field = field;
+    this.value = value;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof MongoDocumentKey)) {
+      return false;
+    }
+    MongoDocumentKey key = (MongoDocumentKey) other;
+    // MongoCollections are compared by instance, as each one wraps a single DBCollection.
+    return collection == key.collection
+        && (field != null ? field.equals(key.field) : key.field == null)
+        && (value != null ? value.equals(key.value) : key.value == null);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = System.identityHashCode(collection);
+    hash = 31 * hash + (field != null ? field.hashCode() : 0);
+    hash = 31 * hash + (value != null ? value.hashCode() : 0);
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return field + ":" + value;
+  }
+
+  /** @return Returns the MongoCollection storing the document. */
+  public MongoCollection getCollection() {
+    return this.collection;
+  }
+
+  /** @return Returns the String field identifying the document. */
+  public String getField() {
+    return this.field;
+  }
+
+  /** @return Returns the value of the field identifying the document. */
+  public Object getValue() {
+    return this.value;
+  }
+}
@@ -16,11 +16,29 @@
 
 package jab.mongo.transaction;
 
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
 import jab.mongo.MongoCollection;
 
 public abstract class MongoDocumentTransaction {
 
+  /** How a transaction affects the document it targets. */
+  public enum Effect {
+    /** The transaction writes the full state of the document. */
+    WRITE,
+    /** The transaction deletes the document. */
+    DELETE,
+    /** The transaction changes part of the document, relying on the state before it. */
+    PARTIAL
+  }
+
   private MongoCollection mongoCollection;
+  /** The System.nanoTime() the transaction was queued at. */
+  private volatile long queuedNanos;
+  /** The sequence of the transaction in the MongoTransactionJournal. 0 if it is not journaled. */
+  private volatile long journalSequence;
 
   public MongoDocumentTransaction(MongoCollection mongoCollection) {
     setMongoCollection(mongoCollection);
@@ -35,4 +53,83 @@ public abstract class MongoDocumentTransaction {
   }
 
   public abstract void run();
+
+  /** @return Returns the System.nanoTime() the transaction was queued at. */
+  public long getQueuedNanos() {
+    return this.queuedNanos;
+  }
+
+  /**
+   * Sets the System.nanoTime() the transaction was queued at. This is set by the MongoDatabase.
+   *
+   * @param queuedNanos The time to set.
+   */
+  public void setQueuedNanos(long queuedNanos) {
+    this.queuedNanos = queuedNanos;
+  }
+
+  /**
+   * @return Returns the sequence of the transaction in the journal, or 0 if it is not journaled.
+   */
+  public long getJournalSequence() {
+    return this.journalSequence;
+  }
+
+  /**
+   * Sets the sequence of the transaction in the journal. This is set by the MongoDatabase.
+   *
+   * @param journalSequence The sequence to set.
+   */
+  public void setJournalSequence(long journalSequence) {
+    this.journalSequence = journalSequence;
+  }
+
+  /**
+   * Called by the worker as it takes the transaction from the queue, before journaling or writing
+   * it. Transactions that take changes while queued must stop taking them here.
+   */
+  public void seal() {}
+
+  /**
+   * Describes the transaction for the MongoTransactionJournal, so it can be rebuilt and replayed
+   * after a crash. The DBObject needs a 'type' field known to the journal, and the name of the
+   * collection as 'collection'.
+   *
+   * @return Returns the DBObject describing the transaction, or null if the transaction cannot be
+   *     journaled.
+   */
+  public DBObject toJournal() {
+    return null;
+  }
+
+  /**
+   * Adds the write requests of the transaction to a bulk write for its MongoCollection.
+   *
+   * @param bulk The BulkWriteOperation to add to.
+   * @return Returns the amount of write requests added.
+   */
+  public abstract int addTo(BulkWriteOperation bulk);
+
+  /**
+   * Called by the worker when a write request of the transaction fails.
+   *
+   * @param exception The MongoException describing the failure.
+   */
+  public void onFailure(MongoException exception) {
+    System.err.println(
+        "Failed to run MongoDocumentTransaction for document " + getDocumentKey() + ":");
+    exception.printStackTrace();
+  }
+
+  /**
+   * Called by the worker once every write request of the transaction has been written. Nothing is
+   * called for transactions dropped as redundant, or replayed from the journal.
+   */
+  public void onSuccess() {}
+
+  /** @return Returns the key of the document the transaction targets. */
+  public abstract MongoDocumentKey getDocumentKey();
+
+  /** @return Returns how the transaction affects the document it targets. */
+  public abstract Effect getEffect();
 }
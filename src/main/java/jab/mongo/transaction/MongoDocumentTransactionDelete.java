@@ -17,13 +17,18 @@
 package jab.mongo.transaction;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import jab.mongo.MongoCollection;
 import jab.mongo.MongoDatabase;
 
 public class MongoDocumentTransactionDelete extends MongoDocumentTransaction {
 
+  /** The type of the transaction in the MongoTransactionJournal. */
+  public static final String JOURNAL_TYPE = "delete";
+
   private String field;
   private Object value;
 
@@ -52,6 +57,43 @@ public class MongoDocumentTransactionDelete extends MongoDocumentTransaction {
     dbCollection.remove(new BasicDBObject(field, value));
   }
 
+  @Override
+  public int addTo(BulkWriteOperation bulk) {
+    bulk.find(new BasicDBObject(getField(), getValue())).remove();
+    return 1;
+  }
+
+  @Override
+  public DBObject toJournal() {
+    return new BasicDBObject("type", JOURNAL_TYPE)
+        .append("collection", getMongoCollection().getDBCollection().getName())
+        .append("field", getField())
+        .append("value", getValue());
+  }
+
+  /**
+   * Rebuilds a journaled delete.
+   *
+   * @param collection The MongoCollection to delete from.
+   * @param journal The DBObject created by 'toJournal()'.
+   * @return Returns the rebuilt transaction.
+   */
+  public static MongoDocumentTransactionDelete fromJournal(
+      MongoCollection collection, DBObject journal) {
+    return new MongoDocumentTransactionDelete(
+        collection, (String) journal.get("field"), journal.get("value"));
+  }
+
+  @Override
+  public MongoDocumentKey getDocumentKey() {
+    return new MongoDocumentKey(getMongoCollection(), getField(), getValue());
+  }
+
+  @Override
+  public Effect getEffect() {
+    return Effect.DELETE;
+  }
+
   public String getField() {
     return this.field;
   }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.transaction;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+
+import jab.mongo.MongoCollection;
+import jab.mongo.MongoDatabase;
+import jab.mongo.document.MongoUniqueDocument;
+
+/**
+ * Transaction that inserts a new document. Unlike an upsert, the insert fails if a document with
+ * the same ID exists, which a unique index on the ID field reports as a duplicate key. The
+ * document is told about the duplicate on the worker thread.
+ *
+ * <p>Inserts rebuilt from the MongoTransactionJournal have no document. For them, a duplicate key
+ * means the insert already reached MongoDB before the crash, so it is ignored.
+ *
+ * @author Jab
+ */
+public class MongoDocumentTransactionInsert extends MongoDocumentTransaction {
+
+  /** The type of the transaction in the MongoTransactionJournal. */
+  public static final String JOURNAL_TYPE = "insert";
+
+  /** The DBObject to insert. */
+  private final DBObject object;
+  /** The String field identifying the document. */
+  private final String field;
+  /** The MongoUniqueDocument being inserted. */
+  private final MongoUniqueDocument document;
+
+  /**
+   * Main constructor.
+   *
+   * @param collection The MongoCollection to insert into.
+   * @param object The DBObject to insert.
+   * @param field The String field identifying the document.
+   * @param document The MongoUniqueDocument being inserted. Null for inserts rebuilt from the
+   *     journal.
+   */
+  public MongoDocumentTransactionInsert(
+      MongoCollection collection, DBObject object, String field, MongoUniqueDocument document) {
+    super(collection);
+    this.object = object;
+    this.field = field;
+    this.document = document;
+  }
+
+  @Override
+  public void run() {
+    DBCollection dbCollection = getMongoCollection().getDBCollection();
+    if (MongoDatabase.DEBUG) {
+      System.out.println(
+          "("
+              + dbCollection.getName()
+              + "): Inserting document: (field:"
+              + field
+              + " id:"
+              + object.get(field)
+              + ")");
+    }
+    try {
+      dbCollection.insert(object);
+    } catch (MongoException e) {
+      // The insert may succeed once MongoDB can be reached, so the caller has to see the failure.
+      if (MongoTransactionJournal.isTransient(e)) {
+        throw e;
+      }
+      onFailure(e);
+    }
+  }
+
+  @Override
+  public int addTo(BulkWriteOperation bulk) {
+    bulk.insert(object);
+    return 1;
+  }
+
+  @Override
+  public void onFailure(MongoException exception) {
+    if (ErrorCategory.fromErrorCode(exception.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+      if (document != null) {
+        document.onDuplicateId(exception);
+      }
+    } else {
+      super.onFailure(exception);
+      if (document != null) {
+        document.onWriteFailure(exception);
+      }
+    }
+  }
+
+  @Override
+  public void onSuccess() {
+    if (document != null) {
+      document.onWritten();
+    }
+  }
+
+  @Override
+  public DBObject toJournal() {
+    return new BasicDBObject("type", JOURNAL_TYPE)
+        .append("collection", getMongoCollection().getDBCollection().getName())
+        .append("field", field)
+        .append("object", object);
+  }
+
+  /**
+   * Rebuilds a journaled insert. The rebuilt insert has no document to tell about a duplicate ID.
+   *
+   * @param collection The MongoCollection to insert into.
+   * @param journal The DBObject created by 'toJournal()'.
+   * @return Returns the rebuilt transaction.
+   */
+  public static MongoDocumentTransactionInsert fromJournal(
+      MongoCollection collection, DBObject journal) {
+    return new MongoDocumentTransactionInsert(
+        collection, (DBObject) journal.get("object"), (String) journal.get("field"), null);
+  }
+
+  @Override
+  public MongoDocumentKey getDocumentKey() {
+    return new MongoDocumentKey(getMongoCollection(), field, object.get(field));
+  }
+
+  @Override
+  public Effect getEffect() {
+    return Effect.WRITE;
+  }
+
+  /** @return Returns the DBObject to insert. */
+  public DBObject getObject() {
+    return this.object;
+  }
+
+  /**
+   * @return Returns the MongoUniqueDocument being inserted, or null if rebuilt from the journal.
+   */
+  public MongoUniqueDocument getDocument() {
+    return this.document;
+  }
+}
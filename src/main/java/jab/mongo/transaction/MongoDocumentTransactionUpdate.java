@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.transaction;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import jab.mongo.MongoCollection;
+import jab.mongo.MongoDatabase;
+import jab.mongo.document.MongoDocument;
+import jab.mongo.document.MongoUniqueDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transaction that changes part of an existing document with update operators, instead of writing
+ * the full document.
+ *
+ * <p>The updates of one transaction may be sent in the same unordered bulk write, so they must not
+ * depend on each other's order.
+ *
+ * @author Jab
+ */
+public class MongoDocumentTransactionUpdate extends MongoDocumentTransaction {
+
+  /** The type of the transaction in the MongoTransactionJournal. */
+  public static final String JOURNAL_TYPE = "update";
+
+  /** The queries selecting the document, or an element inside it, for each update. */
+  private final List<DBObject> listQueries;
+  /** The update operators to apply, in the same order as the queries. */
+  private final List<DBObject> listUpdates;
+  /** The String field identifying the document. */
+  private String field;
+  /** The value of the field identifying the document. */
+  private Object value;
+  /** The MongoUniqueDocument told when the update fails. Null if nothing is told. */
+  private final MongoUniqueDocument document;
+
+  /**
+   * Main constructor.
+   *
+   * @param collection The MongoCollection storing the document.
+   * @param field The String field identifying the document.
+   * @param value The value of the field identifying the document.
+   */
+  public MongoDocumentTransactionUpdate(MongoCollection collection, String field, Object value) {
+    this(collection, field, value, null);
+  }
+
+  /**
+   * Constructor for updates of a MongoUniqueDocument, told through
+   * 'MongoUniqueDocument.onWriteFailure(MongoException)' when the update fails.
+   *
+   * @param collection The MongoCollection storing the document.
+   * @param field The String field identifying the document.
+   * @param value The value of the field identifying the document.
+   * @param document The MongoUniqueDocument being updated. Null if nothing is told.
+   */
+  public MongoDocumentTransactionUpdate(
+      MongoCollection collection, String field, Object value, MongoUniqueDocument document) {
+    super(collection);
+    setField(field);
+    setValue(value);
+    this.document = document;
+    listQueries = new ArrayList<>();
+    listUpdates = new ArrayList<>();
+  }
+
+  /**
+   * Adds an update for the document.
+   *
+   * @param update The DBObject containing the update operators.
+   */
+  public void add(DBObject update) {
+    add(new BasicDBObject(), update);
+  }
+
+  /**
+   * Adds an update for the document, with extra conditions for the query. This is used for
+   * positional operators, such as 'nodes.$.flag'.
+   *
+   * @param query The DBObject containing extra conditions. The field identifying the document is
+   *     added to it.
+   * @param update The DBObject containing the update operators.
+   */
+  public void add(DBObject query, DBObject update) {
+    query.put(getField(), getValue());
+    listQueries.add(query);
+    listUpdates.add(update);
+  }
+
+  /**
+   * @return Returns the encoded size, in bytes, of the update documents. This encodes every update,
+   *     so only use it where the cost is acceptable.
+   */
+  public int getEncodedSize() {
+    int size = 0;
+    for (DBObject update : listUpdates) {
+      size += MongoDocument.getEncodedSize(update);
+    }
+    return size;
+  }
+
+  /** @return Returns true if the transaction contains no updates. */
+  public boolean isEmpty() {
+    return listUpdates.isEmpty();
+  }
+
+  @Override
+  public void run() {
+    MongoCollection collection = getMongoCollection();
+    DBCollection dbCollection = collection.getDBCollection();
+    if (MongoDatabase.DEBUG) {
+      System.out.println(
+          "("
+              + dbCollection.getName()
+              + "): Updating document: (field:"
+              + getField()
+              + " id:"
+              + getValue()
+              + " updates:"
+              + listUpdates.size()
+              + ")");
+    }
+    for (int index = 0; index < listUpdates.size(); index++) {
+      dbCollection.update(listQueries.get(index), listUpdates.get(index));
+    }
+  }
+
+  @Override
+  public int addTo(BulkWriteOperation bulk) {
+    for (int index = 0; index < listUpdates.size(); index++) {
+      bulk.find(listQueries.get(index)).updateOne(listUpdates.get(index));
+    }
+    return listUpdates.size();
+  }
+
+  @Override
+  public DBObject toJournal() {
+    BasicDBList queries = new BasicDBList();
+    queries.addAll(listQueries);
+    BasicDBList updates = new BasicDBList();
+    updates.addAll(listUpdates);
+    return new BasicDBObject("type", JOURNAL_TYPE)
+        .append("collection", getMongoCollection().getDBCollection().getName())
+        .append("field", getField())
+        .append("value", getValue())
+        .append("queries", queries)
+        .append("updates", updates);
+  }
+
+  /**
+   * Rebuilds a journaled update.
+   *
+   * @param collection The MongoCollection storing the document.
+   * @param journal The DBObject created by 'toJournal()'.
+   * @return Returns the rebuilt transaction.
+   */
+  public static MongoDocumentTransactionUpdate fromJournal(
+      MongoCollection collection, DBObject journal) {
+    MongoDocumentTransactionUpdate update =
+        new MongoDocumentTransactionUpdate(
+            collection, (String) journal.get("field"), journal.get("value"));
+    List<?> queries = (List<?>) journal.get("queries");
+    List<?> updates = (List<?>) journal.get("updates");
+    for (int index = 0; index < updates.size(); index++) {
+      update.add((DBObject) queries.get(index), (DBObject) updates.get(index));
+    }
+    return update;
+  }
+
+  @Override
+  public void onFailure(MongoException exception) {
+    super.onFailure(exception);
+    if (document != null) {
+      document.onWriteFailure(exception);
+    }
+  }
+
+  @Override
+  public MongoDocumentKey getDocumentKey() {
+    return new MongoDocumentKey(getMongoCollection(), getField(), getValue());
+  }
+
+  @Override
+  public Effect getEffect() {
+    return Effect.PARTIAL;
+  }
+
+  public String getField() {
+    return this.field;
+  }
+
+  private void setField(String field) {
+    this.field = field;
+  }
+
+  public Object getValue() {
+    return this.value;
+  }
+
+  private void setValue(Object value) {
+    this.value = value;
+  }
+}
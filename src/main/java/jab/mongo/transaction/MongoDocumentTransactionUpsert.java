@@ -17,14 +17,19 @@
 package jab.mongo.transaction;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 
 import jab.mongo.MongoCollection;
 import jab.mongo.MongoDatabase;
+import jab.mongo.document.MongoUniqueDocument;
 
 public class MongoDocumentTransactionUpsert extends MongoDocumentTransaction {
 
+  /** The type of the transaction in the MongoTransactionJournal. */
+  public static final String JOURNAL_TYPE = "upsert";
+
   private DBObject object;
   private String field;
   private Object lock;
@@ -59,6 +64,55 @@ public class MongoDocumentTransactionUpsert extends MongoDocumentTransaction {
     dbCollection.update(new BasicDBObject(field, object.get(field)), append, true, false);
   }
 
+  @Override
+  public int addTo(BulkWriteOperation bulk) {
+    DBObject object = getObject();
+    String field = getField();
+    bulk.find(new BasicDBObject(field, object.get(field)))
+        .upsert()
+        .update(new BasicDBObject("$set", object));
+    return 1;
+  }
+
+  @Override
+  public void onSuccess() {
+    // Documents saving themselves pass themselves as the lock.
+    if (lock instanceof MongoUniqueDocument) {
+      ((MongoUniqueDocument) lock).onWritten();
+    }
+  }
+
+  @Override
+  public DBObject toJournal() {
+    return new BasicDBObject("type", JOURNAL_TYPE)
+        .append("collection", getMongoCollection().getDBCollection().getName())
+        .append("field", getField())
+        .append("object", getObject());
+  }
+
+  /**
+   * Rebuilds a journaled upsert. The lock of the original transaction is not kept.
+   *
+   * @param collection The MongoCollection the upsert writes to.
+   * @param journal The DBObject created by 'toJournal()'.
+   * @return Returns the rebuilt transaction.
+   */
+  public static MongoDocumentTransactionUpsert fromJournal(
+      MongoCollection collection, DBObject journal) {
+    return new MongoDocumentTransactionUpsert(
+        collection, (DBObject) journal.get("object"), (String) journal.get("field"), null);
+  }
+
+  @Override
+  public MongoDocumentKey getDocumentKey() {
+    return new MongoDocumentKey(getMongoCollection(), getField(), getObject().get(getField()));
+  }
+
+  @Override
+  public Effect getEffect() {
+    return Effect.WRITE;
+  }
+
   public Object getLock() {
     return this.lock;
   }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jab.mongo.transaction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Utility class to remove queued transactions that a later transaction for the same document makes
+ * redundant.
+ *
+ * <p>A full write replaces the whole stored document, so only the latest full write for a document
+ * needs to run. A delete makes every earlier full write for the document redundant. A full write
+ * never makes an earlier delete redundant, so the order of deletes and full writes for a document
+ * is kept.
+ *
+ * <p>Partial updates, such as the '$set', '$unset', '$addToSet' and '$pull' deltas that
+ * MongoUniqueNodeDocument saves, are never removed. Each one only carries the changes since the
+ * previous save, so dropping one loses those changes for good, even when a later partial update
+ * for the same document is queued. They also apply to whatever the earlier transactions left
+ * behind, so a full write before a partial update is never removed for a later partial update
+ * either.
+ *
+ * @author Jab
+ */
+public class MongoTransactionCoalescer {
+
+  /** The latest transaction seen for a document while walking the batch backwards. */
+  private enum Seen {
+    /** A later transaction writes the full document. */
+    WRITE,
+    /** A later transaction deletes the document. */
+    DELETE
+  }
+
+  /**
+   * (Private Constructor)
+   *
+   * <p>Utility class.
+   */
+  private MongoTransactionCoalescer() {}
+
+  /**
+   * Removes redundant transactions from a batch, keeping the order of the remaining ones.
+   *
+   * @param listTransactions The List of transactions, in the order they were queued.
+   * @return Returns the amount of transactions removed.
+   */
+  public static int coalesce(List<MongoDocumentTransaction> listTransactions) {
+    // Nothing can be redundant in a batch of one.
+    if (listTransactions.size() < 2) {
+      return 0;
+    }
+    int removed = 0;
+    Map<MongoDocumentKey, Seen> mapSeen = new HashMap<>();
+    // Walk the batch backwards, so the latest transaction for each document is seen first.
+    ListIterator<MongoDocumentTransaction> iterator =
+        listTransactions.listIterator(listTransactions.size());
+    while (iterator.hasPrevious()) {
+      MongoDocumentTransaction transaction = iterator.previous();
+      MongoDocumentTransaction.Effect effect = transaction.getEffect();
+      // Partial updates depend on what comes before them. Keep them, and everything they rely on.
+      if (effect == MongoDocumentTransaction.Effect.PARTIAL) {
+        continue;
+      }
+      MongoDocumentKey key = transaction.getDocumentKey();
+      Seen seen = mapSeen.get(key);
+      if (effect == MongoDocumentTransaction.Effect.WRITE) {
+        // A later write or delete replaces this write entirely.
+        if (seen != null) {
+          iterator.remove();
+          removed++;
+        } else {
+          mapSeen.put(key, Seen.WRITE);
+        }
+      } else {
+        // A later delete makes this delete redundant. A later write must still follow this
+        // delete, so this delete is kept.
+        if (seen == Seen.DELETE) {
+          iterator.remove();
+          removed++;
+        } else {
+          mapSeen.put(key, Seen.DELETE);
+        }
+      }
+    }
+    return removed;
+  }
+}
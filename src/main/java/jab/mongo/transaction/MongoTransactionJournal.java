@@ -0,0 +1,540 @@
+/*
+ * Copyright 2018 Joshua Edwards
+ *
+ * Licensed under the Apache License, Version 2.0.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jab.mongo.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+
+import jab.mongo.MongoCollection;
+import jab.mongo.MongoDatabase;
+
+/**
+ * Append-only, memory-mapped journal of the transactions queued in a MongoDatabase.
+ *
+ * <p>The transaction worker is the only writer. It appends each transaction before writing it, and
+ * after writing a batch, commits the journal up to the last transaction in the batch, and the space
+ * of committed records is reused. Records still in the journal when it is opened were never
+ * written, and are replayed before anything new is queued.
+ *
+ * <p>The file is memory-mapped, so a record reaches the operating system as soon as it is
+ * appended, and survives the process being killed. Enable sync to also survive the machine losing
+ * power, at the cost of forcing the appended records to the disk on every 'flush()'. Commits are
+ * not forced, as losing one only means writing a batch again.
+ *
+ * <p>Replay is at-least-once. A batch written just before a crash, but not yet committed, is
+ * written again, so journaled transactions must be idempotent. Upserts and deletes are, a replayed
+ * insert is rejected as a duplicate, and updates must only use operators such as '$set', '$pull'
+ * and '$addToSet', never '$push' or '$inc'.
+ *
+ * @author Jab
+ */
+public class MongoTransactionJournal {
+
+  /** The default size, in bytes, of the journal file. The file grows when it runs out of space. */
+  public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+  /** The largest size, in bytes, the journal file can grow to. */
+  public static final int MAX_CAPACITY = 1024 * 1024 * 1024;
+  /** The version of the journal format. */
+  public static final int VERSION = 1;
+
+  /** The first int of a journal file: "MPJL". */
+  private static final int MAGIC = 0x4D504A4C;
+  /** The offset, in the header, of the offset of the first record to read. */
+  private static final int HEADER_START = 8;
+  /** The offset, in the header, of the last committed sequence. */
+  private static final int HEADER_COMMITTED = 16;
+  /** The size of the file header: magic, version, start offset and committed sequence. */
+  private static final int HEADER_SIZE = 32;
+  /** The size of a record header: length, sequence and CRC32 of the BSON that follows. */
+  private static final int RECORD_HEADER_SIZE = 16;
+
+  /** The File storing the journal. */
+  private final File file;
+  /** The size, in bytes, of the journal file when it is created. */
+  private final int initialCapacity;
+  /** The records not yet committed, in the order they were appended. */
+  private final ArrayDeque<Record> queueRecords = new ArrayDeque<>();
+  /** Flag for forcing every change to the disk. */
+  private volatile boolean sync;
+  /** The FileChannel of the journal file. Null until the journal is opened. */
+  private FileChannel channel;
+  /** The mapped journal file. Null until the journal is opened. */
+  private MappedByteBuffer buffer;
+  /** The size, in bytes, of the mapped journal file. */
+  private int capacity;
+  /** The offset to append the next record at. */
+  private int position;
+  /** The sequence of the next record appended. */
+  private long nextSequence = 1;
+  /** The sequence of the last record committed. */
+  private long committedSequence;
+
+  /**
+   * Main constructor.
+   *
+   * @param file The File storing the journal. It is created if it does not exist.
+   * @param initialCapacity The size, in bytes, of the journal file when it is created.
+   */
+  public MongoTransactionJournal(File file, int initialCapacity) {
+    if (initialCapacity < HEADER_SIZE * 2 || initialCapacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("Invalid journal capacity: " + initialCapacity + ".");
+    }
+    this.file = file;
+    this.initialCapacity = initialCapacity;
+  }
+
+  /**
+   * Opens the journal, creating the file if it does not exist. Records left uncommitted are kept
+   * for 'replay(MongoDatabase)'. A record cut short by a crash, and anything after it, is ignored.
+   *
+   * @throws IOException Thrown if the file cannot be opened, is not a journal, or is open in
+   *     another journal.
+   */
+  public synchronized void open() throws IOException {
+    if (channel != null) {
+      throw new IllegalStateException("The journal is already open.");
+    }
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create the directory: " + directory);
+    }
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    try {
+      // Two journals writing to the same file would overwrite each other's records.
+      if (channel.tryLock() == null) {
+        throw new IOException("The journal is in use: " + file);
+      }
+    } catch (OverlappingFileLockException e) {
+      channel.close();
+      channel = null;
+      throw new IOException("The journal is in use: " + file);
+    } catch (IOException e) {
+      channel.close();
+      channel = null;
+      throw e;
+    }
+    long size = channel.size();
+    try {
+      map((int) Math.min(Math.max(size, initialCapacity), MAX_CAPACITY));
+      if (size < HEADER_SIZE) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(HEADER_START, HEADER_SIZE);
+        buffer.putLong(HEADER_COMMITTED, 0L);
+        buffer.putInt(HEADER_SIZE, 0);
+        buffer.force();
+        position = HEADER_SIZE;
+        return;
+      }
+      if (buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a transaction journal: " + file);
+      }
+      int version = buffer.getInt(4);
+      if (version > VERSION) {
+        throw new IOException("Unsupported journal version: " + version + ".");
+      }
+      scan();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      channel = null;
+      buffer = null;
+      throw e;
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Reads the records of an existing journal, from the start offset in the header to the first
+   * record that is missing, cut short, or out of order.
+   */
+  private void scan() {
+    committedSequence = buffer.getLong(HEADER_COMMITTED);
+    long start = buffer.getLong(HEADER_START);
+    int offset = start >= HEADER_SIZE && start < capacity ? (int) start : HEADER_SIZE;
+    long last = 0L;
+    CRC32 crc = new CRC32();
+    while (offset + RECORD_HEADER_SIZE <= capacity) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || length > capacity - offset - RECORD_HEADER_SIZE) {
+        break;
+      }
+      long sequence = buffer.getLong(offset + 4);
+      if (sequence <= last) {
+        break;
+      }
+      byte[] bytes = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset + RECORD_HEADER_SIZE);
+      view.get(bytes);
+      crc.reset();
+      crc.update(bytes, 0, length);
+      if ((int) crc.getValue() != buffer.getInt(offset + 12)) {
+        break;
+      }
+      last = sequence;
+      if (sequence > committedSequence) {
+        Record record = new Record(sequence, offset);
+        record.object = new DefaultDBDecoder().decode(bytes, (DBCollection) null);
+        queueRecords.add(record);
+      }
+      offset += RECORD_HEADER_SIZE + length;
+    }
+    nextSequence = Math.max(committedSequence, last) + 1;
+    if (queueRecords.isEmpty()) {
+      position = HEADER_SIZE;
+      buffer.putLong(HEADER_START, HEADER_SIZE);
+      buffer.putInt(HEADER_SIZE, 0);
+    } else {
+      position = offset;
+      buffer.putInt(offset, 0);
+    }
+  }
+
+  /**
+   * Runs the transactions left uncommitted when the journal was opened, in order, on the calling
+   * thread. This must be called before any transaction is appended.
+   *
+   * <p>Transactions that fail with a write error are reported to the transaction and skipped. If
+   * MongoDB cannot be reached, the transactions replayed so far are committed, and the exception
+   * is thrown. The rest stay in the journal.
+   *
+   * @param database The MongoDatabase to replay the transactions on.
+   * @return Returns the amount of transactions replayed.
+   * @throws IllegalStateException Thrown if a record has a type this version cannot rebuild.
+   */
+  public int replay(MongoDatabase database) {
+    List<Record> listRecords;
+    synchronized (this) {
+      assertOpen();
+      listRecords = new ArrayList<>();
+      for (Record record : queueRecords) {
+        if (record.object != null) {
+          listRecords.add(record);
+        }
+      }
+    }
+    Map<String, MongoCollection> mapCollections = new HashMap<>();
+    long last = 0L;
+    int replayed = 0;
+    try {
+      for (Record record : listRecords) {
+        String name = (String) record.object.get("collection");
+        MongoCollection collection =
+            mapCollections.computeIfAbsent(name, database::createMongoCollection);
+        MongoDocumentTransaction transaction = rebuild(collection, record.object);
+        try {
+          transaction.run();
+        } catch (MongoException e) {
+          if (isTransient(e)) {
+            throw e;
+          }
+          transaction.onFailure(e);
+        }
+        record.object = null;
+        last = record.sequence;
+        replayed++;
+      }
+    } finally {
+      if (last > 0L) {
+        commit(last);
+      }
+    }
+    return replayed;
+  }
+
+  /**
+   * Rebuilds a journaled transaction.
+   *
+   * @param collection The MongoCollection of the transaction.
+   * @param object The DBObject created by 'MongoDocumentTransaction.toJournal()'.
+   * @return Returns the rebuilt transaction.
+   * @throws IllegalStateException Thrown if the type of the transaction is unknown.
+   */
+  public static MongoDocumentTransaction rebuild(MongoCollection collection, DBObject object) {
+    String type = (String) object.get("type");
+    if (MongoDocumentTransactionUpsert.JOURNAL_TYPE.equals(type)) {
+      return MongoDocumentTransactionUpsert.fromJournal(collection, object);
+    } else if (MongoDocumentTransactionInsert.JOURNAL_TYPE.equals(type)) {
+      return MongoDocumentTransactionInsert.fromJournal(collection, object);
+    } else if (MongoDocumentTransactionUpdate.JOURNAL_TYPE.equals(type)) {
+      return MongoDocumentTransactionUpdate.fromJournal(collection, object);
+    } else if (MongoDocumentTransactionDelete.JOURNAL_TYPE.equals(type)) {
+      return MongoDocumentTransactionDelete.fromJournal(collection, object);
+    }
+    throw new IllegalStateException("Unknown journaled transaction type: " + type + ".");
+  }
+
+  /**
+   * Appends a transaction to the journal.
+   *
+   * @param transaction The MongoDocumentTransaction to append.
+   * @return Returns the sequence of the record, or 0 if the transaction cannot be journaled.
+   * @throws IOException Thrown if the journal file cannot grow to fit the record.
+   */
+  public synchronized long append(MongoDocumentTransaction transaction) throws IOException {
+    assertOpen();
+    DBObject object = transaction.toJournal();
+    if (object == null) {
+      return 0L;
+    }
+    byte[] bytes = new DefaultDBEncoder().encode(object);
+    int size = RECORD_HEADER_SIZE + bytes.length;
+    // Leave room for the empty length marking the end of the records.
+    ensureCapacity(size + 4);
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    long sequence = nextSequence++;
+    int offset = position;
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset + RECORD_HEADER_SIZE);
+    view.put(bytes);
+    buffer.putLong(offset + 4, sequence);
+    buffer.putInt(offset + 12, (int) crc.getValue());
+    buffer.putInt(offset + size, 0);
+    // The length goes last, so a record cut short is never read.
+    buffer.putInt(offset, bytes.length);
+    position = offset + size;
+    queueRecords.add(new Record(sequence, offset));
+    return sequence;
+  }
+
+  /** Forces the appended records to the disk, if sync is enabled. */
+  public synchronized void flush() {
+    if (sync && buffer != null) {
+      buffer.force();
+    }
+  }
+
+  /**
+   * Commits every record up to a sequence. Committed records are never replayed, and their space
+   * is reused.
+   *
+   * @param sequence The sequence of the last record written to MongoDB.
+   */
+  public synchronized void commit(long sequence) {
+    if (buffer == null || sequence <= committedSequence) {
+      return;
+    }
+    committedSequence = sequence;
+    Record first;
+    while ((first = queueRecords.peekFirst()) != null && first.sequence <= sequence) {
+      queueRecords.pollFirst();
+    }
+    buffer.putLong(HEADER_COMMITTED, sequence);
+    if (first == null) {
+      // Nothing is left to replay. Start over at the beginning of the file.
+      position = HEADER_SIZE;
+      buffer.putLong(HEADER_START, HEADER_SIZE);
+      buffer.putInt(HEADER_SIZE, 0);
+    } else {
+      buffer.putLong(HEADER_START, first.offset);
+    }
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Makes room to append a record, by moving the uncommitted records to the beginning of the
+   * file, or by growing the file.
+   *
+   * @param size The size, in bytes, needed.
+   * @throws IOException Thrown if the file cannot grow to fit the record.
+   */
+  private void ensureCapacity(int size) throws IOException {
+    if (position + size <= capacity) {
+      return;
+    }
+    compact();
+    if (position + size <= capacity) {
+      return;
+    }
+    long required = (long) position + size;
+    if (required > MAX_CAPACITY) {
+      throw new IOException("The journal is full: " + file);
+    }
+    long grown = capacity;
+    while (grown < required) {
+      grown *= 2;
+    }
+    map((int) Math.min(grown, MAX_CAPACITY));
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Moves the uncommitted records to the beginning of the file. They are only moved if they fit
+   * in the space before them, so the originals are intact until the header points at the copies.
+   */
+  private void compact() {
+    Record first = queueRecords.peekFirst();
+    if (first == null) {
+      return;
+    }
+    int start = first.offset;
+    int length = position - start;
+    if (length > start - HEADER_SIZE) {
+      return;
+    }
+    buffer.putLong(HEADER_START, start);
+    ByteBuffer source = buffer.duplicate();
+    source.position(start);
+    source.limit(position);
+    ByteBuffer target = buffer.duplicate();
+    target.position(HEADER_SIZE);
+    target.put(source);
+    buffer.putInt(HEADER_SIZE + length, 0);
+    if (sync) {
+      buffer.force();
+    }
+    buffer.putLong(HEADER_START, HEADER_SIZE);
+    if (sync) {
+      buffer.force();
+    }
+    int shift = start - HEADER_SIZE;
+    for (Record record : queueRecords) {
+      record.offset -= shift;
+    }
+    position -= shift;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * <p>Maps the journal file, growing it if it is smaller than the capacity.
+   *
+   * @param capacity The size, in bytes, to map.
+   * @throws IOException Thrown if the file cannot be mapped.
+   */
+  private void map(int capacity) throws IOException {
+    MappedByteBuffer previous = this.buffer;
+    if (previous != null) {
+      previous.force();
+    }
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, capacity);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Forces the journal to the disk, and closes it. Uncommitted records are replayed the next time
+   * the journal is opened.
+   *
+   * @throws IOException Thrown if the file cannot be closed.
+   */
+  public synchronized void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    buffer.force();
+    buffer = null;
+    channel.close();
+    channel = null;
+  }
+
+  /**
+   * (Private Method)
+   *
+   * @throws IllegalStateException Thrown if the journal is not open.
+   */
+  private void assertOpen() {
+    if (buffer == null) {
+      throw new IllegalStateException("The journal is not open.");
+    }
+  }
+
+  /**
+   * @param exception The MongoException to test.
+   * @return Returns true if the exception means MongoDB could not be reached, so the write may
+   *     succeed if it is tried again.
+   */
+  public static boolean isTransient(MongoException exception) {
+    return exception instanceof MongoSocketException
+        || exception instanceof MongoTimeoutException;
+  }
+
+  /** @return Returns the amount of records not yet committed. */
+  public synchronized int getPendingCount() {
+    return queueRecords.size();
+  }
+
+  /** @return Returns the size, in bytes, of the mapped journal file. */
+  public synchronized int getCapacity() {
+    return this.capacity;
+  }
+
+  /** @return Returns true if appended records are forced to the disk on 'flush()'. */
+  public boolean isSync() {
+    return this.sync;
+  }
+
+  /**
+   * Sets whether appended records are forced to the disk on 'flush()'. Without it, records
+   * survive the process being killed, but not the machine losing power.
+   *
+   * @param sync The flag to set.
+   */
+  public void setSync(boolean sync) {
+    this.sync = sync;
+  }
+
+  /** @return Returns the File storing the journal. */
+  public File getFile() {
+    return this.file;
+  }
+
+  /** A record in the journal that is not yet committed. */
+  private static class Record {
+
+    /** The sequence of the record. */
+    private final long sequence;
+    /** The offset of the record in the file. */
+    private int offset;
+    /** The journaled transaction, for records waiting to be replayed. Null otherwise. */
+    private DBObject object;
+
+    /**
+     * Main constructor.
+     *
+     * @param sequence The sequence of the record.
+     * @param offset The offset of the record in the file.
+     */
+    private Record(long sequence, int offset) {
+      this.sequence = sequence;
+      this.offset = offset;
+    }
+  }
+}